@@ -2,7 +2,6 @@ package org.sonardrone;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -10,21 +9,27 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.sonardrone.navigator.NavStorage;
+import org.sonardrone.navigator.TelemetryWriter;
+import org.sonardrone.navigator.TextLogFormat;
+import org.sonardrone.navigator.WaypointReader;
+import org.sonardrone.navigator.Waypoints;
+
 import android.os.Environment;
 import android.util.Log;
 
-public class Project {
+public class Project implements NavStorage {
 	private static final String SETTINGS_FILE_NAME = "settings.rf";
 	private static final String SETTINGS_TEMPLATE_FILE_NAME = ".settings.rf";
 	private static final String CURRENT_PROJECT_FILE_NAME = ".current_project.rf";
 	private static final String NAVLOG_FILE_NAME = "nav.log";
 	private static final String MEASLOG_FILE_NAME = "meas.log";
 	private static final String STATELOG_FILE_NAME = "state.rf";
+	private static final String TELEMETRY_FILE_NAME = "telemetry.bin";
 	private static final String ROOT_DIR_NAME = "/sonardrone";
 	private static final String WAYPOINT_FILE_NAME = "waypoints.txt";
 	
@@ -42,6 +47,7 @@ public class Project {
 	private BufferedWriter navlog;
 	private BufferedWriter statelog;
 	private BufferedWriter measlog;
+	private TelemetryWriter telemetry;
 	
 	private Map<String, String> parameters = new HashMap<String, String>();
 	// Map with row order for settings incl. comment rows
@@ -197,77 +203,7 @@ public class Project {
 				Log.e(TAG, "Cannot write to .settings.rf");
 
 			writer = new BufferedWriter(new FileWriter(template));
-			writer.write("#Sonar drone, resource file\r\n"
-					+ "####Initialization of model#####\n"
-					+ "#k=p/v³ , estimated from p = 85%,V = 4m/s\n"
-					+ "k: 3.14\n"
-					+ "#motor load, in percentage\n"
-					+ "load: 85\n"
-					+ "#angle of rudder in degrees\n"
-					+ "rudder_angle: 0\n"
-					+ "#Default time-step\n"
-					+ "dt_default: 0.5\n"
-					+ "#\n"
-					+ "#Activate Kalman filtering\n"
-					+ "filterSwitch: true\n"
-					+ "compassSwitch: true\n"
-					+ "gpsPositionSwitch: true\n"
-					+ "gpsVelSwitch: true\n"
-					+ "gpsBearingSwitch: true\n"
-					+ "encoderVelSwitch: true\n"
-					+ "encoderTurnrateSwitch: true\n"
-					+ "updateKSwitch: true\n"
-					+ "navServiceSwitch: true\n"
-					+ "simulator: true\n"
-					+ "appendLogs: true\n"
-					+ "debugSwitch: false\n"
-					+ "autoPilot: false\n"
-					+ "#####Pure-pursuit parameters#####\n"
-					+ "#Look-ahead distance\n"
-					+ "look_ahead: 5\n"
-					+ "#minimum look-ahead distance, when distance adapted not to overshoot waypoint\n"
-					+ "min_look_ahead: 3\n"
-					+ "#Tolerance within which waypoint is considered reached\n"
-					+ "tolerance: 10\n"
-					+ "wpIndex: 0\n"
-					+ "#max allowed rudder angle\n"
-					+ "max_rudder_angle: 75\n"
-					+ "#Minimum turn radius, used to estimate minimum turn-rate\n"
-					+ "min_turn_radius: 10\n"
-					+ "#\n"
-					+ "#######Model uncertainty estimations########\n"
-					+ "#max acceleration in body-frame x-direction [m/s²]\n"
-					+ "ax_max: 0.05\n"
-					+ "#max acceleration in body-frame y-direction [m/s²]\n"
-					+ "ay_max: 0.2\n"
-					+ "#max turn-rate change in one filter cycle [deg]\n"
-					+ "max_dir_change: 2\n"
-					+ "#time-scale for zero to max turn-rate [s]\n"
-					+ "tau: 2\n"
-					+ "####Measurements uncertainty estimations#####\n"
-					+ "#GPS standard deviation for GPS-position\n"
-					+ "sigmaX_GPS: 0.75\n"
-					+ "#GPS speed standard deviation\n"
-					+ "sigmaV_GPS: 0.3\n"
-					+ "#std dev for phi estimated using GPS [deg]\n"
-					+ "sigmaPhi_GPS: 10\n"
-					+ "#std dev for phi using compass [deg]\n"
-					+ "sigmaPhi_compass: 30\n"
-					+ "#std dev for turn rate estimated from rudder angle and speed\n"
-					+ "sigmaBeta_rudder: 0.001\n"
-					+ "#Load std dev in %\n"
-					+ "sigmaV_load: 0.5\n"
-					+ "####Measurement controls####\n"
-					+ "#Traveled distance required to estimate velocity from GPS-positions\n"
-					+ "minVelDist: 10\n"
-					+ "#Traveled distance with turnrate<bearingTurnrateThreshold\n"
-					+ "#required to estimate bearing from GPS-positions\n"
-					+ "minBearingDist: 5\n"
-					+ "#Threshold for turn-rate to estimate bearing from GPS [deg/s]\n"
-					+ "bearingTurnrateThreshold: 2\n"
-					+ "#Threshold for turn-rate to estimate bearing from compass [deg/s]\n"
-					+ "compassTurnrateThreshold: 2\n"
-					+ "resumeFromWp: 0\n");
+			writer.write(SettingsTemplate.TEXT);
 		} catch (FileNotFoundException e) {
 			Log.e(TAG, "Error: " + e.getMessage());
 			System.exit(1);
@@ -312,6 +248,11 @@ public class Project {
 			this.navlog = new BufferedWriter(navlogfstream);
 			this.statelog = new BufferedWriter(statelogfstream);
 			this.measlog = new BufferedWriter(measlogfstream);
+
+			if (this.containsKey("binaryLogSwitch")
+					&& this.getParameterAsBoolean("binaryLogSwitch"))
+				this.telemetry = new TelemetryWriter(new File(
+						this.getProjectDir(), TELEMETRY_FILE_NAME), append);
 		} catch (Exception e) {// Catch exception if any
 			Log.e(TAG, "Could not open logs to append" + e.getMessage());
 			System.exit(1);
@@ -556,37 +497,53 @@ public class Project {
 
 	}
 	
-	public ArrayList<double[]> read_waypoints() {
-		ArrayList<double[]> wp = new ArrayList<double[]>();
+	public void logRecord(byte type, long time, double[] values) {
 		try {
-			FileInputStream fstream = new FileInputStream(this.waypoint_file);
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-			String strLine;
-			br.readLine();// drop header
-			while ((strLine = br.readLine()) != null) {
-				Log.d(TAG, "wp: " + strLine);
-				String valStr[] = strLine.split("\t");
-				double[] p = new double[2];
-				p[0] = Double.valueOf(Double.valueOf(valStr[0]));
-				p[1] = Double.valueOf(Double.valueOf(valStr[1]));
-				wp.add(p);
-			br.close();
-			}
+			if (this.telemetry != null)
+				this.telemetry.write(type, time, values);
+			else
+				TextLogFormat.write(type, time, values, this.navlog,
+						this.statelog, this.measlog);
+		} catch (IOException e) {
+			Log.e(TAG, "Caught IOException: " + e.getMessage());
+		}
+	}
+
+	public Waypoints read_waypoints() {
+		try {
+			Waypoints wp = WaypointReader.read(this.waypoint_file);
+			Log.d(TAG, String.format("Read %d waypoints", wp.size()));
+			return wp;
 		}
 		catch (IOException ioe) {
-			Log.e(TAG, "Could not read waypoint file");
+			Log.e(TAG, "Could not read waypoint file: " + ioe.getMessage());
 			System.exit(1);
 		}
-		return wp;
-			
+		return null;
 	}
 	
+	public void flush() {
+		try {
+			if (this.statelog != null)
+				this.statelog.flush();
+			if (this.measlog != null)
+				this.measlog.flush();
+			if (this.navlog != null)
+				this.navlog.flush();
+			if (this.telemetry != null)
+				this.telemetry.flush();
+		} catch (IOException e) {
+			Log.e(TAG, "Could not flush logs: " + e.getMessage());
+		}
+	}
+
 	public void close() {
 		try {
 			this.statelog.close();
 			this.measlog.close();
 			this.navlog.close();
+			if (this.telemetry != null)
+				this.telemetry.close();
 		} catch (IOException e) {
 			Log.e(TAG, "Could not close logs: " + e.getMessage());
 		}
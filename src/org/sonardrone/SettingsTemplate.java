@@ -0,0 +1,101 @@
+package org.sonardrone;
+
+/**
+ * Default settings written to .settings.rf, which is copied to settings.rf
+ * when a new project is created.
+ */
+public class SettingsTemplate {
+	public static final String TEXT = "#Sonar drone, resource file\r\n"
+			+ "####Initialization of model#####\n"
+			+ "#k=p/v³ , estimated from p = 85%,V = 4m/s\n"
+			+ "k: 3.14\n"
+			+ "#motor load, in percentage\n"
+			+ "load: 85\n"
+			+ "#angle of rudder in degrees\n"
+			+ "rudder_angle: 0\n"
+			+ "#Default time-step\n"
+			+ "dt_default: 0.5\n"
+			+ "#\n"
+			+ "#Activate Kalman filtering\n"
+			+ "filterSwitch: true\n"
+			+ "compassSwitch: true\n"
+			+ "gpsPositionSwitch: true\n"
+			+ "gpsVelSwitch: true\n"
+			+ "gpsBearingSwitch: true\n"
+			+ "encoderVelSwitch: true\n"
+			+ "encoderTurnrateSwitch: true\n"
+			+ "updateKSwitch: true\n"
+			+ "#Fuse measurements one at a time instead of inverting S\n"
+			+ "sequentialUpdateSwitch: false\n"
+			+ "#Propagate the filter to the time-stamp of each measurement\n"
+			+ "variableDtSwitch: true\n"
+			+ "#Fuse late measurements at their time-stamp, replaying the filter\n"
+			+ "outOfSequenceSwitch: true\n"
+			+ "#Navigation loop ticks kept to replay late measurements\n"
+			+ "historySize: 16\n"
+			+ "#Period of the navigation loop [s]\n"
+			+ "loopPeriod: 0.1\n"
+			+ "#Overrun of the navigation loop: SKIP, CATCH_UP or STRETCH ticks\n"
+			+ "overrunPolicy: SKIP\n"
+			+ "navServiceSwitch: true\n"
+			+ "simulator: true\n"
+			+ "appendLogs: true\n"
+			+ "#Write telemetry.bin instead of text logs, see TelemetryConverter\n"
+			+ "binaryLogSwitch: false\n"
+			+ "debugSwitch: false\n"
+			+ "autoPilot: false\n"
+			+ "#####Pure-pursuit parameters#####\n"
+			+ "#Look-ahead distance\n"
+			+ "look_ahead: 5\n"
+			+ "#minimum look-ahead distance, when distance adapted not to overshoot waypoint\n"
+			+ "min_look_ahead: 3\n"
+			+ "#Tolerance within which waypoint is considered reached\n"
+			+ "tolerance: 10\n"
+			+ "wpIndex: 0\n"
+			+ "#max allowed rudder angle\n"
+			+ "max_rudder_angle: 75\n"
+			+ "#Minimum turn radius, used to estimate minimum turn-rate\n"
+			+ "min_turn_radius: 10\n"
+			+ "#\n"
+			+ "#######Model uncertainty estimations########\n"
+			+ "#max acceleration in body-frame x-direction [m/s²]\n"
+			+ "ax_max: 0.05\n"
+			+ "#max acceleration in body-frame y-direction [m/s²]\n"
+			+ "ay_max: 0.2\n"
+			+ "#max turn-rate change in one filter cycle [deg]\n"
+			+ "max_dir_change: 2\n"
+			+ "#time-scale for zero to max turn-rate [s]\n"
+			+ "tau: 2\n"
+			+ "####Measurements uncertainty estimations#####\n"
+			+ "#GPS standard deviation for GPS-position\n"
+			+ "sigmaX_GPS: 0.75\n"
+			+ "#GPS speed standard deviation\n"
+			+ "sigmaV_GPS: 0.3\n"
+			+ "#std dev for phi estimated using GPS [deg]\n"
+			+ "sigmaPhi_GPS: 10\n"
+			+ "#std dev for phi using compass [deg]\n"
+			+ "sigmaPhi_compass: 30\n"
+			+ "#std dev for turn rate estimated from rudder angle and speed\n"
+			+ "sigmaBeta_rudder: 0.001\n"
+			+ "#Load std dev in %\n"
+			+ "sigmaV_load: 0.5\n"
+			+ "####Measurement controls####\n"
+			+ "#Traveled distance required to estimate velocity from GPS-positions\n"
+			+ "minVelDist: 10\n"
+			+ "#Traveled distance with turnrate<bearingTurnrateThreshold\n"
+			+ "#required to estimate bearing from GPS-positions\n"
+			+ "minBearingDist: 5\n"
+			+ "#Threshold for turn-rate to estimate bearing from GPS [deg/s]\n"
+			+ "bearingTurnrateThreshold: 2\n"
+			+ "#Threshold for turn-rate to estimate bearing from compass [deg/s]\n"
+			+ "compassTurnrateThreshold: 2\n"
+			+ "#Project GPS-fixes with a local approximation around an anchor fix\n"
+			+ "localProjectionSwitch: true\n"
+			+ "#Distance from the anchor where the local projection re-anchors [m]\n"
+			+ "localProjectionRadius: 2000\n"
+			+ "#Largest accepted error of the local projection [m]\n"
+			+ "localProjectionTolerance: 0.001\n"
+			+ "#GPS-fixes between checks against the exact projection\n"
+			+ "localProjectionCheckInterval: 100\n"
+			+ "resumeFromWp: 0\n";
+}
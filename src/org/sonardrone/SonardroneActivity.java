@@ -3,6 +3,7 @@ package org.sonardrone;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpResponse;
@@ -13,8 +14,10 @@ import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
+import org.sonardrone.navigator.COMMAND;
 import org.sonardrone.navigator.Navigator;
 import org.sonardrone.navigator.NavigatorService;
+import org.sonardrone.navigator.SensorBus;
 
 import android.app.Activity;
 import android.app.ActivityManager;
@@ -30,6 +33,8 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.support.v4.content.LocalBroadcastManager;
 import android.text.Editable;
@@ -68,9 +73,19 @@ public class SonardroneActivity extends Activity {
 	private static final String TAG = "SonardroneActivity";
 	static final int DELETE_PROJECT_ID = 1;
 
-	private BroadcastReceiver locationReceiver = null;
+	private SensorBus.Subscriber<SensorBus.Location> locationSubscriber = null;
 	
-	private BroadcastReceiver orientationReceiver = null;
+	private SensorBus.Subscriber<SensorBus.Heading> headingSubscriber = null;
+	
+	// runs sensor event deliveries on the UI thread
+	private final Executor uiExecutor = new Executor() {
+		private final Handler handler = new Handler(Looper.getMainLooper());
+
+		public void execute(Runnable command) {
+			this.handler.post(command);
+		}
+	};
+	private final double[] gpsPos = new double[2];
 	
 	private BroadcastReceiver serviceStatusReceiver = null;
 	
@@ -282,22 +297,20 @@ public class SonardroneActivity extends Activity {
 	
 	public void onResume() {
 		super.onResume();
-		orientationReceiver = new BroadcastReceiver() {
-			@Override
-			public void onReceive(Context context, Intent intent) {
-				SonardroneActivity.this.setCompass(
-		    			intent.getDoubleExtra("heading", 0.0),
-		    			intent.getLongExtra("timestamp", 0));
+		// the UI is given the latest readings, not every one of them
+		headingSubscriber = new SensorBus.Subscriber<SensorBus.Heading>() {
+			public void onEvent(SensorBus.Heading heading) {
+				SonardroneActivity.this.setCompass(heading.heading,
+						heading.time);
 			}
 		};
 
-		locationReceiver = 	new BroadcastReceiver() {
-			@Override
-			public void onReceive(Context context, Intent intent) {
-				SonardroneActivity.this.setGPS(
-						intent.getDoubleArrayExtra("pos"),
-						intent.getLongExtra("timestamp", 0),	
-						intent.getFloatExtra("accuracy", 0));
+		locationSubscriber = new SensorBus.Subscriber<SensorBus.Location>() {
+			public void onEvent(SensorBus.Location fix) {
+				gpsPos[0] = fix.x;
+				gpsPos[1] = fix.y;
+				SonardroneActivity.this.setGPS(gpsPos, fix.time,
+						fix.accuracy);
 			}
 		};
 			
@@ -322,10 +335,8 @@ public class SonardroneActivity extends Activity {
 		    }
 		};
 		    
-		LocalBroadcastManager.getInstance(this.context).registerReceiver(locationReceiver,
-				new IntentFilter("LOCATION_UPDATED"));
-		LocalBroadcastManager.getInstance(this.context).registerReceiver(orientationReceiver,
-				new IntentFilter("ORIENTATION_UPDATED"));
+		SensorBus.getInstance().location.subscribe(locationSubscriber, uiExecutor);
+		SensorBus.getInstance().heading.subscribe(headingSubscriber, uiExecutor);
 		LocalBroadcastManager.getInstance(this.context).registerReceiver(serviceStatusReceiver,
 				new IntentFilter("SERVICE_STATE"));
 
@@ -336,10 +347,10 @@ public class SonardroneActivity extends Activity {
 		super.onPause();
 		if (this.serviceStatusReceiver != null)
 				LocalBroadcastManager.getInstance(this.context).unregisterReceiver(serviceStatusReceiver);
-		if (this.locationReceiver!= null)
-			LocalBroadcastManager.getInstance(this.context).unregisterReceiver(locationReceiver);
-   		if (this.orientationReceiver!=null)
-		LocalBroadcastManager.getInstance(this.context).unregisterReceiver(orientationReceiver);
+		if (this.locationSubscriber != null)
+			SensorBus.getInstance().location.unsubscribe(locationSubscriber);
+		if (this.headingSubscriber != null)
+			SensorBus.getInstance().heading.unsubscribe(headingSubscriber);
 	}
 	
 	public void updateServiceSwitches() {
@@ -606,31 +617,23 @@ public class SonardroneActivity extends Activity {
 	}
 	
 	private void broadcastNavCommand(String command){
-		Intent intent = new Intent("COMMAND");
-	    intent.putExtra("command", command);
-	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
+		this.broadcastNavCommandDouble(command, 0);
 	}
 	
 	public void broadcastNavCommandDouble(String command, double value) {
-		Intent intent = new Intent("COMMAND");
-	    intent.putExtra("command", command);
-	    intent.putExtra("value", value);
-	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
+		SensorBus.Command event = new SensorBus.Command();
+		event.command = COMMAND.valueOf(command);
+		event.value = value;
+		SensorBus.getInstance().command.publish(event);
 	}
 
 	public void broadcastNavCommandInt(String command, int value) {
-		Intent intent = new Intent("COMMAND");
-	    intent.putExtra("command", command);
-	    intent.putExtra("value", value);
-	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
+		this.broadcastNavCommandDouble(command, value);
 	}
 
 	
 	public void broadcastNavCommandBoolean(String command, boolean value) {
-		Intent intent = new Intent("COMMAND");
-	    intent.putExtra("command", command);
-	    intent.putExtra("value", value);
-	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
+		this.broadcastNavCommandDouble(command, value ? 1 : 0);
 	}
 	
 	public void broadcastNavCommandPosArray(String command, double[] lon, double[] lat) {
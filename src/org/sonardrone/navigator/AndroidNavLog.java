@@ -0,0 +1,20 @@
+package org.sonardrone.navigator;
+
+import android.util.Log;
+
+/**
+ * Forwards navigator logging to android.util.Log
+ */
+public class AndroidNavLog implements NavLog {
+	public void d(String tag, String msg) {
+		Log.d(tag, msg);
+	}
+
+	public void i(String tag, String msg) {
+		Log.i(tag, msg);
+	}
+
+	public void e(String tag, String msg) {
+		Log.e(tag, msg);
+	}
+}
@@ -0,0 +1,226 @@
+package org.sonardrone.navigator;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Project storage that writes the logs on a background thread, so that a
+ * stalling SD card does not stall the navigation loop. Log records are put
+ * in a single-producer/single-consumer ring buffer of pre-allocated slots
+ * by the navigation thread, and taken out and written, in batches, by the
+ * writer thread, which flushes the logs after each batch. Settings and
+ * waypoints are passed straight to the wrapped storage.
+ *
+ * The navigation thread never blocks or allocates when logging. If the ring
+ * is full the record is dropped and counted; together with the high-water
+ * mark this shows if the writer can not keep up.
+ */
+public class AsyncNavStorage implements NavStorage {
+	private static final String TAG = "AsyncNavStorage";
+	// text lines passed to log(), see TelemetryWriter for the other types
+	private static final byte TEXT = -1;
+	// wait for the writer when the ring is empty
+	private static final long IDLE_NANOS = 10 * 1000 * 1000;
+
+	private final NavStorage storage;
+	private final NavLog log;
+	private final int capacity;
+	private final int mask;
+
+	// ring slots
+	private final byte[] types;
+	private final long[] times;
+	private final double[][] values;
+	private final String[] logNames;
+	private final String[] logStrings;
+
+	// next slot to write, only updated by the producer
+	private volatile long head = 0;
+	// next slot to read, only updated by the writer thread
+	private volatile long tail = 0;
+
+	// statistics, only updated by the producer
+	private volatile long dropped = 0;
+	private volatile int highWaterMark = 0;
+
+	private volatile boolean running = false;
+	private Thread writer;
+
+	/**
+	 * @param capacity
+	 *            number of records in the ring, rounded up to a power of two
+	 */
+	public AsyncNavStorage(NavStorage storage, NavLog log, int capacity) {
+		this.storage = storage;
+		this.log = log;
+		int c = 1;
+		while (c < capacity)
+			c <<= 1;
+		this.capacity = c;
+		this.mask = c - 1;
+
+		int maxValues = 0;
+		for (int i = 0; i < TelemetryWriter.RECORD_VALUES.length; i++)
+			maxValues = Math.max(maxValues, TelemetryWriter.RECORD_VALUES[i]);
+		this.types = new byte[c];
+		this.times = new long[c];
+		this.values = new double[c][maxValues];
+		this.logNames = new String[c];
+		this.logStrings = new String[c];
+	}
+
+	public AsyncNavStorage(NavStorage storage, NavLog log) {
+		this(storage, log, 4096);
+	}
+
+	/**
+	 * Opens the logs of the wrapped storage and starts the writer thread
+	 */
+	public void initLogs() {
+		this.storage.initLogs();
+		this.running = true;
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "log-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	public void logRecord(byte type, long time, double[] values) {
+		long h = this.head;
+		int slot = this.claim(h);
+		if (slot < 0)
+			return;
+		this.types[slot] = type;
+		this.times[slot] = time;
+		System.arraycopy(values, 0, this.values[slot], 0,
+				TelemetryWriter.RECORD_VALUES[type]);
+		this.head = h + 1;
+	}
+
+	public void log(String logName, String logStr) {
+		long h = this.head;
+		int slot = this.claim(h);
+		if (slot < 0)
+			return;
+		this.types[slot] = TEXT;
+		this.logNames[slot] = logName;
+		this.logStrings[slot] = logStr;
+		this.head = h + 1;
+	}
+
+	// slot for record h, or -1 if the ring is full
+	private int claim(long h) {
+		int used = (int) (h - this.tail);
+		if (used >= this.capacity) {
+			this.dropped++;
+			return -1;
+		}
+		if (used + 1 > this.highWaterMark)
+			this.highWaterMark = used + 1;
+		return (int) (h & this.mask);
+	}
+
+	private void writeLoop() {
+		while (true) {
+			long h = this.head;
+			long t = this.tail;
+			if (t == h) {
+				if (!this.running)
+					break;
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			// write everything available as one batch
+			for (; t < h; t++) {
+				int slot = (int) (t & this.mask);
+				if (this.types[slot] == TEXT) {
+					this.storage.log(this.logNames[slot],
+							this.logStrings[slot]);
+					this.logNames[slot] = null;
+					this.logStrings[slot] = null;
+				} else
+					this.storage.logRecord(this.types[slot], this.times[slot],
+							this.values[slot]);
+			}
+			this.tail = t;
+			// a crash loses at most the batch being written
+			this.storage.flush();
+		}
+	}
+
+	// Each batch is flushed by the writer thread, nothing to do here
+	public void flush() {
+	}
+
+	/**
+	 * Writes the remaining records and closes the wrapped storage
+	 */
+	public void close() {
+		this.running = false;
+		if (this.writer != null) {
+			LockSupport.unpark(this.writer);
+			try {
+				this.writer.join();
+			} catch (InterruptedException e) {
+				this.log.e(TAG, "Interrupted while waiting for log writer");
+			}
+		}
+		this.storage.close();
+		if (this.dropped > 0)
+			this.log.e(TAG, String.format(
+					"Dropped %d log records, ring capacity %d",
+					this.dropped, this.capacity));
+	}
+
+	// Number of records dropped because the ring was full
+	public long getDropped() {
+		return this.dropped;
+	}
+
+	// Largest number of records waiting to be written
+	public int getHighWaterMark() {
+		return this.highWaterMark;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	public boolean containsKey(String key) {
+		return this.storage.containsKey(key);
+	}
+
+	public double getParameterAsDouble(String par) {
+		return this.storage.getParameterAsDouble(par);
+	}
+
+	public int getParameterAsInt(String par) {
+		return this.storage.getParameterAsInt(par);
+	}
+
+	public boolean getParameterAsBoolean(String par) {
+		return this.storage.getParameterAsBoolean(par);
+	}
+
+	public String getParameterAsString(String par) {
+		return this.storage.getParameterAsString(par);
+	}
+
+	public void setInt(String key, int value) {
+		this.storage.setInt(key, value);
+	}
+
+	public boolean settings_updated() {
+		return this.storage.settings_updated();
+	}
+
+	public void write() {
+		this.storage.write();
+	}
+
+	public Waypoints read_waypoints() {
+		return this.storage.read_waypoints();
+	}
+}
@@ -0,0 +1,496 @@
+package org.sonardrone.navigator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Log store for replay and analysis, with seek by time. Telemetry records
+ * (see TelemetryWriter) are stored in memory-mapped segment files of fixed
+ * size. A sparse index, with an entry for every INDEX_INTERVAL records and
+ * for the start of every run, is kept in memory, so that the records
+ * around any time are found with a binary search and a short scan.
+ *
+ * Records are keyed on run and time. A run starts at each START record, as
+ * when logs are appended by Project.initLogs, and the time of a record is
+ * the predictionTime of the iteration it was logged in.
+ *
+ * Existing logs are indexed with importLogs, from telemetry.bin if there
+ * is one and otherwise from state.rf and meas.log.
+ *
+ * Usage: LogStore projectDir [time_s] [records]
+ */
+public class LogStore {
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	public static final String STORE_DIR_NAME = "logstore";
+
+	private static final byte[] MAGIC = { 'S', 'D', 'S', 'G' };
+	private static final byte VERSION = 1;
+	// magic, version, padding, record count, used bytes
+	private static final int HEADER_SIZE = 16;
+	private static final int COUNT_OFFSET = 8;
+	private static final int USED_OFFSET = 12;
+	private static final int INDEX_INTERVAL = 64;
+	private static final String SEGMENT_FORMAT = "segment-%05d.sdsg";
+
+	private final File dir;
+	private final int segmentSize;
+	private final List<RandomAccessFile> files = new ArrayList<RandomAccessFile>();
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	// sparse index, entries sorted on run and time
+	private int indexSize = 0;
+	private int[] indexRun = new int[256];
+	private long[] indexTime = new long[256];
+	private int[] indexSegment = new int[256];
+	private int[] indexOffset = new int[256];
+
+	// append position and key of the last record
+	private long recordCount = 0;
+	private int run = 0;
+	private long runRecords = 0;
+	private long time = Long.MIN_VALUE;
+
+	private LogStore(File dir, int segmentSize) {
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Creates an empty store in dir, removing any earlier segments
+	 */
+	public static LogStore create(File dir, int segmentSize) throws IOException {
+		if (!dir.exists() && !dir.mkdirs())
+			throw new IOException("Could not create " + dir);
+		for (File f : segmentFiles(dir)) {
+			if (!f.delete())
+				throw new IOException("Could not remove " + f);
+		}
+		return new LogStore(dir, segmentSize);
+	}
+
+	/**
+	 * Opens the segments in dir and rebuilds the index
+	 */
+	public static LogStore open(File dir) throws IOException {
+		File[] files = segmentFiles(dir);
+		if (files.length == 0)
+			throw new IOException("No log store in " + dir);
+		LogStore store = new LogStore(dir, (int) files[0].length());
+		for (File f : files)
+			store.indexSegment(store.map(f));
+		return store;
+	}
+
+	/**
+	 * Indexes the logs in a project directory into projectDir/logstore, from
+	 * telemetry.bin if there is one, otherwise from state.rf and meas.log
+	 */
+	public static LogStore importLogs(File projectDir) throws IOException {
+		LogStore store = create(new File(projectDir, STORE_DIR_NAME),
+				DEFAULT_SEGMENT_SIZE);
+		File telemetry = new File(projectDir, "telemetry.bin");
+		if (telemetry.exists()) {
+			TelemetryReader reader = new TelemetryReader(telemetry);
+			try {
+				while (reader.next())
+					store.append(reader.type(), reader.time(), reader.values());
+			} finally {
+				reader.close();
+			}
+		} else
+			store.importText(new File(projectDir, "state.rf"), new File(
+					projectDir, "meas.log"));
+		return store;
+	}
+
+	private static File[] segmentFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return new File[0];
+		List<File> segments = new ArrayList<File>();
+		for (File f : files) {
+			if (f.getName().startsWith("segment-")
+					&& f.getName().endsWith(".sdsg"))
+				segments.add(f);
+		}
+		File[] sorted = segments.toArray(new File[segments.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private MappedByteBuffer map(File f) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(f, "rw");
+		boolean created = file.length() == 0;
+		if (created)
+			file.setLength(this.segmentSize);
+		MappedByteBuffer segment = file.getChannel().map(
+				FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		if (created) {
+			segment.put(MAGIC);
+			segment.put(VERSION);
+			segment.putInt(COUNT_OFFSET, 0);
+			segment.putInt(USED_OFFSET, HEADER_SIZE);
+		} else {
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (segment.get(i) != MAGIC[i])
+					throw new IOException("Not a log store segment: " + f);
+			}
+			if (segment.get(MAGIC.length) != VERSION)
+				throw new IOException("Unsupported segment version: " + f);
+		}
+		this.files.add(file);
+		this.segments.add(segment);
+		return segment;
+	}
+
+	private void indexSegment(MappedByteBuffer segment) throws IOException {
+		int s = this.segments.size() - 1;
+		int count = segment.getInt(COUNT_OFFSET);
+		int offset = HEADER_SIZE;
+		for (int i = 0; i < count; i++) {
+			byte type = segment.get(offset);
+			this.addKey(type, segment.getLong(offset + 1), s, offset);
+			offset += TelemetryWriter.recordSize(type);
+		}
+	}
+
+	// updates run and time with a new record, and indexes it if needed
+	private void addKey(byte type, long t, int segment, int offset) {
+		boolean newRun = type == TelemetryWriter.START && this.runRecords > 0;
+		if (newRun) {
+			this.run++;
+			this.runRecords = 0;
+			this.time = Long.MIN_VALUE;
+		}
+		if (newRun || this.recordCount % INDEX_INTERVAL == 0) {
+			if (this.indexSize == this.indexRun.length) {
+				int n = 2 * this.indexSize;
+				this.indexRun = Arrays.copyOf(this.indexRun, n);
+				this.indexTime = Arrays.copyOf(this.indexTime, n);
+				this.indexSegment = Arrays.copyOf(this.indexSegment, n);
+				this.indexOffset = Arrays.copyOf(this.indexOffset, n);
+			}
+			// key before this record
+			this.indexRun[this.indexSize] = this.run;
+			this.indexTime[this.indexSize] = this.time;
+			this.indexSegment[this.indexSize] = segment;
+			this.indexOffset[this.indexSize] = offset;
+			this.indexSize++;
+		}
+		// the wall clock time of START records is not part of the key, nav
+		// records are logged with the time of the previous iteration
+		if (type != TelemetryWriter.START)
+			this.time = Math.max(this.time, t);
+		this.recordCount++;
+		this.runRecords++;
+	}
+
+	public void append(byte type, long t, double[] values) throws IOException {
+		int size = TelemetryWriter.recordSize(type);
+		if (size > this.segmentSize - HEADER_SIZE)
+			throw new IllegalArgumentException("Segment size too small");
+		MappedByteBuffer segment = null;
+		if (!this.segments.isEmpty())
+			segment = this.segments.get(this.segments.size() - 1);
+		if (segment == null
+				|| segment.getInt(USED_OFFSET) + size > this.segmentSize)
+			segment = this.map(new File(this.dir, String.format(
+					SEGMENT_FORMAT, this.segments.size())));
+
+		int offset = segment.getInt(USED_OFFSET);
+		segment.put(offset, type);
+		segment.putLong(offset + 1, t);
+		int n = TelemetryWriter.RECORD_VALUES[type];
+		for (int i = 0; i < n; i++)
+			segment.putDouble(offset + 9 + 8 * i, values[i]);
+		segment.putInt(USED_OFFSET, offset + size);
+		segment.putInt(COUNT_OFFSET, segment.getInt(COUNT_OFFSET) + 1);
+		this.addKey(type, t, this.segments.size() - 1, offset);
+	}
+
+	/**
+	 * Cursor at the first record of run with a time >= t, or at the start of
+	 * the next run if there is none
+	 */
+	public Cursor seek(int run, long t) {
+		// last index entry before the wanted key
+		int lo = 0;
+		int hi = this.indexSize - 1;
+		int entry = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.indexRun[mid] < run
+					|| (this.indexRun[mid] == run && this.indexTime[mid] < t)) {
+				entry = mid;
+				lo = mid + 1;
+			} else
+				hi = mid - 1;
+		}
+		Cursor c = new Cursor();
+		if (this.indexSize == 0)
+			return c;
+		c.segment = this.indexSegment[entry];
+		c.offset = this.indexOffset[entry];
+		c.run = this.indexRun[entry];
+		c.time = this.indexTime[entry];
+		// index entries at a START record are already keyed on its run
+		if (this.segments.get(c.segment).get(c.offset) != TelemetryWriter.START)
+			c.runRecords = 1;
+		// scan at most INDEX_INTERVAL records to the wanted key
+		while (c.peek()) {
+			if (c.nextRun > run || (c.nextRun == run && c.nextTime >= t))
+				break;
+			c.next();
+		}
+		return c;
+	}
+
+	public Cursor seek(long t) {
+		return this.seek(0, t);
+	}
+
+	public int runs() {
+		return this.recordCount == 0 ? 0 : this.run + 1;
+	}
+
+	public long size() {
+		return this.recordCount;
+	}
+
+	public void close() throws IOException {
+		for (MappedByteBuffer segment : this.segments)
+			segment.force();
+		for (RandomAccessFile f : this.files)
+			f.close();
+		this.segments.clear();
+		this.files.clear();
+	}
+
+	/**
+	 * Iterates over the records of the store from a position given by seek
+	 */
+	public class Cursor {
+		private int segment = 0;
+		private int offset = HEADER_SIZE;
+		// key of the last record passed
+		private int run = 0;
+		private long time = Long.MIN_VALUE;
+		private long runRecords = 0;
+		// key of the next record, set by peek
+		private int nextRun;
+		private long nextTime;
+
+		private byte type;
+		private long recordTime;
+		private final double[][] values;
+
+		Cursor() {
+			this.values = new double[TelemetryWriter.RECORD_VALUES.length][];
+			for (int i = 0; i < this.values.length; i++)
+				this.values[i] = new double[TelemetryWriter.RECORD_VALUES[i]];
+		}
+
+		// moves to the next segment if needed and computes the next key
+		private boolean peek() {
+			while (this.segment < segments.size()
+					&& this.offset >= segments.get(this.segment).getInt(
+							USED_OFFSET)) {
+				this.segment++;
+				this.offset = HEADER_SIZE;
+			}
+			if (this.segment >= segments.size())
+				return false;
+			ByteBuffer s = segments.get(this.segment);
+			byte t = s.get(this.offset);
+			if (t == TelemetryWriter.START && this.runRecords > 0) {
+				this.nextRun = this.run + 1;
+				this.nextTime = Long.MIN_VALUE;
+			} else {
+				this.nextRun = this.run;
+				this.nextTime = this.time;
+				if (t != TelemetryWriter.START)
+					this.nextTime = Math.max(this.time, s.getLong(this.offset + 1));
+			}
+			return true;
+		}
+
+		public boolean next() {
+			if (!this.peek())
+				return false;
+			ByteBuffer s = segments.get(this.segment);
+			this.type = s.get(this.offset);
+			this.recordTime = s.getLong(this.offset + 1);
+			double[] v = this.values[this.type];
+			for (int i = 0; i < v.length; i++)
+				v[i] = s.getDouble(this.offset + 9 + 8 * i);
+			this.offset += TelemetryWriter.recordSize(this.type);
+			if (this.nextRun != this.run)
+				this.runRecords = 0;
+			this.run = this.nextRun;
+			this.time = this.nextTime;
+			this.runRecords++;
+			return true;
+		}
+
+		public byte type() {
+			return this.type;
+		}
+
+		public long time() {
+			return this.recordTime;
+		}
+
+		// run of the current record
+		public int run() {
+			return this.run;
+		}
+
+		/**
+		 * Values of the current record, the array is reused for the next
+		 * record of the same type
+		 */
+		public double[] values() {
+			return this.values[this.type];
+		}
+	}
+
+	// state.rf and meas.log, merged on run and time as logged
+	private void importText(File state, File meas) throws IOException {
+		TextLog s = new TextLog(state, TelemetryWriter.STATE);
+		TextLog m = new TextLog(meas, TelemetryWriter.MEAS);
+		try {
+			boolean hasS = s.next();
+			boolean hasM = m.next();
+			while (hasS || hasM) {
+				// the meas row is logged before the state row
+				if (hasM && (!hasS || m.compareTo(s) <= 0)) {
+					// both logs start every run, only store it once
+					if (!(hasS && s.type == TelemetryWriter.START && s.compareTo(m) == 0))
+						this.append(m.type, m.time, m.values);
+					hasM = m.next();
+				} else {
+					this.append(s.type, s.time, s.values);
+					hasS = s.next();
+				}
+			}
+		} finally {
+			s.close();
+			m.close();
+		}
+	}
+
+	// records of a text log, one per row
+	private static class TextLog {
+		private final SimpleDateFormat startFormat = new SimpleDateFormat(
+				"yy-MM-dd HH:mm:ss:SSS");
+		private final BufferedReader reader;
+		private final byte rowType;
+		final double[] values;
+		byte type;
+		long time;
+		int run = -1;
+
+		TextLog(File f, byte rowType) throws IOException {
+			this.reader = f.exists() ? new BufferedReader(new FileReader(f))
+					: null;
+			this.rowType = rowType;
+			this.values = new double[TelemetryWriter.RECORD_VALUES[rowType]];
+		}
+
+		boolean next() throws IOException {
+			if (this.reader == null)
+				return false;
+			String row;
+			while ((row = this.reader.readLine()) != null) {
+				if (row.startsWith("#Start time: ")) {
+					this.type = TelemetryWriter.START;
+					this.run++;
+					try {
+						this.time = this.startFormat.parse(
+								row.substring("#Start time: ".length()).trim())
+								.getTime();
+					} catch (ParseException e) {
+						this.time = 0;
+					}
+					return true;
+				}
+				String[] cols = row.split("\t");
+				if (cols.length < this.values.length + 1)
+					continue;
+				try {
+					this.time = Long.parseLong(cols[0].trim());
+					for (int i = 0; i < this.values.length; i++)
+						this.values[i] = Double.parseDouble(cols[i + 1]);
+				} catch (NumberFormatException e) {
+					// column headers
+					continue;
+				}
+				if (this.run < 0)
+					this.run = 0;
+				this.type = this.rowType;
+				return true;
+			}
+			return false;
+		}
+
+		// orders on run and time, with START first in a run
+		int compareTo(TextLog o) {
+			if (this.run != o.run)
+				return this.run < o.run ? -1 : 1;
+			long t1 = this.type == TelemetryWriter.START ? Long.MIN_VALUE
+					: this.time;
+			long t2 = o.type == TelemetryWriter.START ? Long.MIN_VALUE
+					: o.time;
+			return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+		}
+
+		void close() throws IOException {
+			if (this.reader != null)
+				this.reader.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: LogStore projectDir [time_s] [records]");
+			System.exit(1);
+		}
+		File projectDir = new File(args[0]);
+		File storeDir = new File(projectDir, STORE_DIR_NAME);
+		long start = System.currentTimeMillis();
+		LogStore store = storeDir.exists() ? open(storeDir)
+				: importLogs(projectDir);
+		System.out.println(String.format(
+				"%d records in %d runs, indexed in %d ms", store.size(),
+				store.runs(), System.currentTimeMillis() - start));
+		if (args.length > 1) {
+			long t = (long) (Double.parseDouble(args[1]) * 1000);
+			int n = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+			int lastRun = Math.max(0, store.runs() - 1);
+			Cursor c = store.seek(lastRun, t);
+			for (int i = 0; i < n && c.next(); i++) {
+				StringBuilder sb = new StringBuilder();
+				sb.append(String.format("run %d type %d time %d", c.run(),
+						c.type(), c.time()));
+				double[] v = c.values();
+				for (int j = 0; j < v.length; j++)
+					sb.append(String.format("\t%f", v[j]));
+				System.out.println(sb.toString());
+			}
+		}
+		store.close();
+	}
+}
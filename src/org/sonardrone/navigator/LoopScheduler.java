@@ -0,0 +1,175 @@
+package org.sonardrone.navigator;
+
+/**
+ * Fixed-rate scheduler for the navigation loop. Tick n is due at start + n *
+ * period on the monotonic clock, so that the period does not drift with
+ * the time spent in each iteration or with late wake-ups.
+ *
+ * An iteration that starts a whole period or more after its deadline is an
+ * overrun, and the policy decides what to do with the deadlines that have
+ * passed meanwhile. The lateness of each tick is kept as jitter
+ * statistics.
+ */
+public class LoopScheduler {
+	public enum OverrunPolicy {
+		// drop the missed ticks, the loop continues with the latest one
+		SKIP,
+		// run the missed ticks back to back until the loop is on time
+		CATCH_UP,
+		// run the latest tick with a time-step covering the missed ones
+		STRETCH
+	}
+
+	private final NavClock clock;
+	private final long period; // [ns]
+	private OverrunPolicy policy;
+
+	private long start; // [ns]
+	private long tick = 0;
+
+	// statistics, lateness in ns
+	private long ticks = 0;
+	private long overruns = 0;
+	private long skipped = 0;
+	private long lastJitter = 0;
+	private long maxJitter = 0;
+	private double meanJitter = 0;
+	private double m2Jitter = 0; // sum of squared deviations from the mean
+
+	public LoopScheduler(NavClock clock, long periodNanos, OverrunPolicy policy) {
+		if (periodNanos <= 0)
+			throw new IllegalArgumentException("Period must be positive");
+		this.clock = clock;
+		this.period = periodNanos;
+		this.policy = policy;
+	}
+
+	// Sets tick 0 to now
+	public void start() {
+		this.start = this.clock.nanoTime();
+		this.tick = 0;
+	}
+
+	/**
+	 * Waits for the next tick
+	 *
+	 * @return number of periods since the previous tick, 1 unless the
+	 *         policy is STRETCH and deadlines were missed
+	 */
+	public int awaitNext() throws InterruptedException {
+		long deadline = this.deadline(this.tick + 1);
+		long late = this.clock.nanoTime() - deadline;
+		int periods = 1;
+		if (late >= this.period) {
+			this.overruns++;
+			long missed = late / this.period;
+			switch (this.policy) {
+			case CATCH_UP:
+				this.tick++;
+				break;
+			case SKIP:
+				this.tick += 1 + missed;
+				this.skipped += missed;
+				break;
+			case STRETCH:
+				this.tick += 1 + missed;
+				this.skipped += missed;
+				periods = (int) Math.min(Integer.MAX_VALUE, 1 + missed);
+				break;
+			}
+		} else {
+			this.tick++;
+			while (late < 0) {
+				// millisecond sleep, rounded up not to wake before deadline
+				this.clock.sleep((-late + 999999) / 1000000);
+				late = this.clock.nanoTime() - deadline;
+			}
+		}
+		this.addJitter(this.clock.nanoTime() - this.deadline(this.tick));
+		return periods;
+	}
+
+	// Welford's running mean and variance
+	private void addJitter(long jitter) {
+		this.ticks++;
+		this.lastJitter = jitter;
+		if (jitter > this.maxJitter)
+			this.maxJitter = jitter;
+		double delta = jitter - this.meanJitter;
+		this.meanJitter += delta / this.ticks;
+		this.m2Jitter += delta * (jitter - this.meanJitter);
+	}
+
+	public void resetStats() {
+		this.ticks = 0;
+		this.overruns = 0;
+		this.skipped = 0;
+		this.lastJitter = 0;
+		this.maxJitter = 0;
+		this.meanJitter = 0;
+		this.m2Jitter = 0;
+	}
+
+	private long deadline(long n) {
+		return this.start + n * this.period;
+	}
+
+	// Index of the current tick
+	public long getTick() {
+		return this.tick;
+	}
+
+	// Time of the current tick in milliseconds since start
+	public long getTickMillis() {
+		return this.tick * this.period / 1000000;
+	}
+
+	// Time of tick 0 on the clock [ns]
+	public long getStartNanos() {
+		return this.start;
+	}
+
+	public long getPeriodNanos() {
+		return this.period;
+	}
+
+	public OverrunPolicy getPolicy() {
+		return this.policy;
+	}
+
+	public void setPolicy(OverrunPolicy policy) {
+		this.policy = policy;
+	}
+
+	// Ticks waited for since start or resetStats
+	public long getTicks() {
+		return this.ticks;
+	}
+
+	// Ticks that started a period or more after their deadline
+	public long getOverruns() {
+		return this.overruns;
+	}
+
+	// Deadlines that were not run as an iteration of their own
+	public long getSkipped() {
+		return this.skipped;
+	}
+
+	// Lateness of the current tick [ns]
+	public long getLastJitter() {
+		return this.lastJitter;
+	}
+
+	public long getMaxJitter() {
+		return this.maxJitter;
+	}
+
+	public double getMeanJitter() {
+		return this.meanJitter;
+	}
+
+	public double getJitterStdDev() {
+		return this.ticks > 1 ? Math.sqrt(this.m2Jitter / (this.ticks - 1)) : 0;
+	}
+}
@@ -0,0 +1,136 @@
+package org.sonardrone.navigator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free queue of time-stamped sensor samples, offered by any number of
+ * sensor threads and drained by the navigation loop. The samples are kept
+ * in a bounded ring of primitive arrays, so offering a sample does not
+ * allocate.
+ *
+ * Each slot has a sequence number telling whether it is free for the
+ * producer at a position or holds the sample of that position for the
+ * consumer. Producers claim a position with a compare-and-set of the tail
+ * and publish the sample by advancing the sequence of the slot, after the
+ * values are written. A full queue rejects the sample and counts it as
+ * dropped.
+ */
+public class MeasurementQueue {
+	// sample types
+	public static final int GPS = 0; // x, y, accuracy
+	public static final int COMPASS = 1; // heading
+
+	private static final int VALUES = 3;
+
+	/**
+	 * Receives the samples of a drain, on the consumer thread
+	 */
+	public interface Consumer {
+		public void sample(int type, long time, double v0, double v1,
+				double v2);
+	}
+
+	private final int mask;
+	private final AtomicLongArray sequence;
+	private final int[] types;
+	private final long[] times;
+	private final double[] values;
+
+	// next position to claim by producers
+	private final AtomicLong tail = new AtomicLong();
+	// next position to read, only used by the consumer
+	private long head = 0;
+	private final AtomicLong dropped = new AtomicLong();
+
+	public MeasurementQueue() {
+		this(256);
+	}
+
+	// capacity is rounded up to a power of two
+	public MeasurementQueue(int capacity) {
+		int n = 2;
+		while (n < capacity)
+			n <<= 1;
+		this.mask = n - 1;
+		this.sequence = new AtomicLongArray(n);
+		for (int i = 0; i < n; i++)
+			this.sequence.set(i, i);
+		this.types = new int[n];
+		this.times = new long[n];
+		this.values = new double[VALUES * n];
+	}
+
+	/**
+	 * Adds a sample, may be called from any thread
+	 *
+	 * @return false if the queue is full and the sample was dropped
+	 */
+	public boolean offer(int type, long time, double v0, double v1, double v2) {
+		long pos;
+		while (true) {
+			pos = this.tail.get();
+			long diff = this.sequence.get((int) pos & this.mask) - pos;
+			if (diff == 0) {
+				if (this.tail.compareAndSet(pos, pos + 1))
+					break;
+			} else if (diff < 0) {
+				// the consumer has not read the sample of the last round
+				this.dropped.incrementAndGet();
+				return false;
+			}
+			// else another producer claimed the position, try the next
+		}
+		int slot = (int) pos & this.mask;
+		this.types[slot] = type;
+		this.times[slot] = time;
+		this.values[VALUES * slot] = v0;
+		this.values[VALUES * slot + 1] = v1;
+		this.values[VALUES * slot + 2] = v2;
+		// publish, the writes above are visible to the consumer after this
+		this.sequence.lazySet(slot, pos + 1);
+		return true;
+	}
+
+	/**
+	 * Passes the published samples to consumer in the order they were
+	 * claimed, and frees their slots. At most one capacity of samples is
+	 * passed, so that a drain ends while producers keep offering. Must only
+	 * be called from one thread.
+	 *
+	 * @return number of samples passed
+	 */
+	public int drain(Consumer consumer) {
+		int n = 0;
+		while (n <= this.mask) {
+			int slot = (int) this.head & this.mask;
+			if (this.sequence.get(slot) != this.head + 1)
+				break;
+			int type = this.types[slot];
+			long time = this.times[slot];
+			double v0 = this.values[VALUES * slot];
+			double v1 = this.values[VALUES * slot + 1];
+			double v2 = this.values[VALUES * slot + 2];
+			// free the slot for the position one round ahead
+			this.sequence.lazySet(slot, this.head + this.mask + 1);
+			this.head++;
+			consumer.sample(type, time, v0, v1, v2);
+			n++;
+		}
+		return n;
+	}
+
+	public int capacity() {
+		return this.mask + 1;
+	}
+
+	// Samples waiting, exact only on the consumer thread
+	public int size() {
+		return (int) Math.max(0, this.tail.get() - this.head);
+	}
+
+	// Samples rejected because the queue was full
+	public long getDropped() {
+		return this.dropped.get();
+	}
+}
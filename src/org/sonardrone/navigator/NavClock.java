@@ -0,0 +1,13 @@
+package org.sonardrone.navigator;
+
+/**
+ * Time source used by the navigator. On the device this is the system clock,
+ * in off-device simulations a simulated clock that advances instantly when
+ * the navigator sleeps.
+ */
+public interface NavClock {
+	public long currentTimeMillis();
+	// Monotonic time for scheduling, with an arbitrary origin
+	public long nanoTime();
+	public void sleep(long millis) throws InterruptedException;
+}
@@ -0,0 +1,10 @@
+package org.sonardrone.navigator;
+
+/**
+ * Debug logger used by the navigator, same levels as android.util.Log.
+ */
+public interface NavLog {
+	public void d(String tag, String msg);
+	public void i(String tag, String msg);
+	public void e(String tag, String msg);
+}
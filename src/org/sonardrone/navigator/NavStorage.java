@@ -0,0 +1,24 @@
+package org.sonardrone.navigator;
+
+/**
+ * Settings, waypoints and logs of a navigation project. Implemented by
+ * org.sonardrone.Project on the device.
+ */
+public interface NavStorage {
+	public boolean containsKey(String key);
+	public double getParameterAsDouble(String par);
+	public int getParameterAsInt(String par);
+	public boolean getParameterAsBoolean(String par);
+	public String getParameterAsString(String par);
+	public void setInt(String key, int value);
+	public boolean settings_updated();
+	public void write();
+	public void initLogs();
+	public void log(String logName, String logStr);
+	// binary telemetry record, see TelemetryWriter
+	public void logRecord(byte type, long time, double[] values);
+	public Waypoints read_waypoints();
+	// writes buffered log records to the files
+	public void flush();
+	public void close();
+}
@@ -17,13 +17,13 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.sonardrone.Project;
 import org.sonardrone.SonardroneActivity;
-import org.sonardrone.navigator.NavigatorService;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.os.Bundle;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
@@ -37,10 +37,37 @@ public class NavThread extends Thread {
     public NavThread(String name, Context context) {
 		super(name);
 		this.context = context;
-		NavigatorService.operative = false;
 		this.prj = new Project(Navigator.projectName);
-		this.nav = new Navigator();
-		this.nav.initProject();
+		NavLog log = new AndroidNavLog();
+		// logs are written on a separate thread, off the navigation loop
+		this.nav = new Navigator(new SystemNavClock(), log,
+				new AsyncNavStorage(new Project(Navigator.projectName), log));
+	}
+	
+	public Bundle getStatus() {
+		Bundle data = new Bundle();
+		double[] posWgs84 = this.nav.getPosWGS84();
+		data.putDouble("lon",posWgs84[0]);
+		data.putDouble("lat",posWgs84[1]);
+		data.putDouble("speed", this.nav.V());
+		data.putDouble("bearing",this.nav.phi());
+		data.putDouble("turnrate", this.nav.turn_rate());
+		data.putDouble("progress", this.nav.progressEstimate());
+		data.putDouble("remaining", this.nav.remainingDistance());
+		data.putDouble("eta", this.nav.eta());
+		data.putDouble("accurracy",this.nav.getGpsAccuracy());		
+		// timing of the navigation loop, jitter in ms
+		LoopScheduler scheduler = this.nav.getScheduler();
+		if (scheduler != null) {
+			data.putDouble("jitter", scheduler.getMeanJitter() / 1e6);
+			data.putDouble("jitter_std", scheduler.getJitterStdDev() / 1e6);
+			data.putDouble("jitter_max", scheduler.getMaxJitter() / 1e6);
+			data.putLong("overruns", scheduler.getOverruns());
+		}
+		// cost of fusing late measurements, per tick in us
+		data.putDouble("history_us", this.nav.getHistoryNanosPerTick() / 1e3);
+		data.putLong("late_fused", this.nav.getLateFused());
+		return data;				
 	}
 	
 	public void postStatus() {
@@ -58,11 +85,11 @@ public class NavThread extends Thread {
 		nameValuePairs.add(new BasicNameValuePair("heading",
 				Double.toString(NavThread.this.nav.phi())));
 		nameValuePairs.add(new BasicNameValuePair("active",
-				Boolean.toString(Navigator.getActive())));
+				Boolean.toString(NavThread.this.nav.getActive())));
 		nameValuePairs.add(new BasicNameValuePair("rudder_angle",
-				Double.toString(Navigator.getRudderAngle())));
+				Double.toString(NavThread.this.nav.getRudderAngle())));
 		nameValuePairs.add(new BasicNameValuePair("auto_pilot",
-				Boolean.toString(Navigator.getAutopilot())));
+				Boolean.toString(NavThread.this.nav.getAutopilot())));
 		nameValuePairs.add(new BasicNameValuePair("cwp_lon",
 				Double.toString(cwp[0])));
 		nameValuePairs.add(new BasicNameValuePair("cwp_lat",
@@ -107,22 +134,19 @@ public class NavThread extends Thread {
 	            Context.MODE_PRIVATE);
 	}
 	
-	private BroadcastReceiver locationReceiver = new BroadcastReceiver() {
-	    @Override
-	    public void onReceive(Context context, Intent intent) {
-	    	NavThread.this.nav.updateGPS(
-	    			intent.getDoubleArrayExtra("pos"),
-	    			intent.getLongExtra("timestamp", 0),
-	    			intent.getFloatExtra("accuracy", 0));
+	// sensor events are queued for the navigation loop on the publishing
+	// thread, at their acquisition time in nav time
+	private SensorBus.Subscriber<SensorBus.Location> locationSubscriber = new SensorBus.Subscriber<SensorBus.Location>() {
+	    public void onEvent(SensorBus.Location fix) {
+	    	NavThread.this.nav.postGPS(fix.x, fix.y,
+	    			NavThread.this.nav.toNavTime(fix.time), fix.accuracy);
 	    }
 	};
 	
-	private BroadcastReceiver orientationReceiver = new BroadcastReceiver() {
-	    @Override
-	    public void onReceive(Context context, Intent intent) {
-	    	NavThread.this.nav.updateCompass(
-	    			intent.getDoubleExtra("heading", 0.0),
-	    			intent.getLongExtra("timestamp", 0));
+	private SensorBus.Subscriber<SensorBus.Heading> headingSubscriber = new SensorBus.Subscriber<SensorBus.Heading>() {
+	    public void onEvent(SensorBus.Heading heading) {
+	    	NavThread.this.nav.postCompass(heading.heading,
+	    			NavThread.this.nav.toNavTime(heading.time));
 	    }
 	};
 
@@ -146,16 +170,16 @@ public class NavThread extends Thread {
 	    case OPERATE:
 	    	break;
 	    case MANUAL:
-	    	Navigator.setAutopilot(false);
+	    	NavThread.this.nav.setAutopilot(false);
 	    	break;
 	    case AUTOPILOT:
-	    	Navigator.setAutopilot(true);
+	    	NavThread.this.nav.setAutopilot(true);
 	    	break;
 	    case DEACTIVATE:
-	    	Navigator.setActive(false);
+	    	NavThread.this.nav.setActive(false);
 	    	break;
 	    case ACTIVATE:
-	    	Navigator.setActive(true);
+	    	NavThread.this.nav.setActive(true);
 	    	break;
 	    case GET_STATUS:
 	    	NavThread.this.postStatus();
@@ -169,22 +193,22 @@ public class NavThread extends Thread {
 	    	}
 	    	break;
 	    case ADD_SURVEY:
-	    	Navigator.setActive(false);
+	    	NavThread.this.nav.setActive(false);
 	    	NavThread.this.writeSurvey(val);
 	    	break;	    	
 	    case SET_RUDDER:
 	    	int angle = Integer.parseInt(val);
-	    	Navigator.setRudderAngle(angle);
+	    	NavThread.this.nav.setRudderAngle(angle);
 	    	break;
 	    case START_MOTOR:
-	    	Navigator.setMotorLoad(80);
+	    	NavThread.this.nav.setMotorLoad(80);
 	    	break;
 	    case STOP_MOTOR:
-	    	Navigator.setMotorLoad(0);
+	    	NavThread.this.nav.setMotorLoad(0);
 	    	break;
 	    case SET_LOAD:
 	    	int load = Integer.parseInt(val);
-	    	Navigator.setMotorLoad(load);
+	    	NavThread.this.nav.setMotorLoad(load);
 	    	break;
 	    case SHUTDOWN:
 	    	NavThread.this.nav.finish();
@@ -227,17 +251,14 @@ public class NavThread extends Thread {
 		LocalBroadcastManager.getInstance(this.context).registerReceiver(gcmMessageReceiver,
 				new IntentFilter("COMMAND"));
 		
-		LocalBroadcastManager.getInstance(this.context).registerReceiver(locationReceiver,
-				new IntentFilter("LOCATION_UPDATED"));
-		
-		LocalBroadcastManager.getInstance(this.context).registerReceiver(orientationReceiver,
-				new IntentFilter("ORIENTATION_UPDATED"));
+		SensorBus.getInstance().location.subscribe(locationSubscriber, null);
+		SensorBus.getInstance().heading.subscribe(headingSubscriber, null);
     	    	
     	//read parameters from settings.rf
     	this.nav.readResources();
 
-    	// init measurement logs
-    	this.prj.initLogs();
+    	// init measurement logs, on the project the navigator logs to
+    	this.nav.initLogs();
     	
     	// init sensors, e.g. wait for GPS-fix
     	this.nav.initSensors();
@@ -246,20 +267,20 @@ public class NavThread extends Thread {
     	this.nav.initTime();
 
     	// operation loop
-    	while (NavigatorService.operative) {
+    	while (this.nav.isOperative()) {
     		//waits (polls) for waypoints if not using autopilot
    			this.nav.initWaypoints();
    			
-   			if (NavigatorService.operative)
+   			if (this.nav.isOperative())
    				this.nav.initNavigation();
    			
-   			if (NavigatorService.operative)
+   			if (this.nav.isOperative())
    				this.nav.run();
    			
    		}
    		this.nav.finish();
    	    LocalBroadcastManager.getInstance(this.context).unregisterReceiver(gcmMessageReceiver);
-   		LocalBroadcastManager.getInstance(this.context).unregisterReceiver(locationReceiver);
-   		LocalBroadcastManager.getInstance(this.context).unregisterReceiver(orientationReceiver);
+   		SensorBus.getInstance().location.unsubscribe(locationSubscriber);
+   		SensorBus.getInstance().heading.unsubscribe(headingSubscriber);
 		}
     };
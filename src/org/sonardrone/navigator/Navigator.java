@@ -13,26 +13,20 @@ import static java.lang.Math.sqrt;
 import static java.lang.Math.toRadians;
 
 import java.lang.reflect.Field;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
-import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Random;
 
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
 import org.ejml.simple.SimpleMatrix;
-import org.sonardrone.Project;
 import org.sonardrone.navigator.kalman.KalmanFilter;
-import org.sonardrone.navigator.kalman.NavFilter;
+import org.sonardrone.navigator.kalman.UpdateStrategy;
+import org.sonardrone.navigator.kalman.DenseNavFilter;
 import org.sonardrone.proj.positions.SWEREF99Position;
 import org.sonardrone.proj.positions.WGS84Position;
 
-import android.os.Bundle;
-import android.util.Log;
-
 
 /**
  * Waypoint navigation for autonomous boat Uses Kalman-filtering of
@@ -42,8 +36,12 @@ import android.util.Log;
  */
 public class Navigator {
 	private static final String TAG = "Navigator";
+	// below this speed [m/s] no ETA is estimated
+	private static final double MIN_ETA_SPEED = 0.05;
 	public static String projectName = "default";
-	private Project prj;
+	private NavStorage prj;
+	private NavClock clock;
+	private NavLog log;
 
 	/*
 	 * current state, corrected in order: X,Y,V,phi, turn_rate where X,Y is
@@ -51,7 +49,7 @@ public class Navigator {
 	 * clockwise direction turn_rate is in deg/s, positive in clockwise
 	 * direction
 	 */
-	private static double[] state = { 0, 0, 0, 0, 0 };
+	private double[] state = { 0, 0, 0, 0, 0 };
 	
 	/*
 	 * current measurements in order X, Y, V, phi_GPS,phi_compass,load where X
@@ -59,15 +57,69 @@ public class Navigator {
 	 * measured with GPS phi_compass is heading measured with compass load is
 	 * current engine load in % of full load
 	 */
-	private static double[] meas = { 0, 0, 0, 0, 0, 0, 0 };
+	private double[] meas = { 0, 0, 0, 0, 0, 0, 0 };
 	private double k = 3.14; // k=p/v³ , estimated from p = 85%,V = 3m/s
 	private double compass_bias = 0;
 	private long[] timestamps = { 0, 0, 0, 0, 0, 0, 0 }; // Latest measurement
 														// time-stamps
 	private double gpsAccuracy =25;
 
+	// log records, reused every iteration
+	private final double[] stateRecord = new double[10];
+	private final double[] measRecord = new double[7];
+	private final double[] navRecord = new double[10];
+
+	// sensor samples from other threads, drained by the navigation loop
+	private final MeasurementQueue samples = new MeasurementQueue();
+	private final double[] samplePos = new double[2];
+	private final MeasurementQueue.Consumer sampleConsumer = new MeasurementQueue.Consumer() {
+		public void sample(int type, long time, double v0, double v1,
+				double v2) {
+			if (type == MeasurementQueue.GPS) {
+				samplePos[0] = v0;
+				samplePos[1] = v1;
+				updateGPS(samplePos, time, (float) v2);
+			} else if (type == MeasurementQueue.COMPASS)
+				updateCompass(v0, time);
+		}
+	};
+
+	// measurements left to fuse, and those of the current time-stamp
+	private final boolean[] pendingMeas = new boolean[7];
+	private final boolean[] epochMeas = new boolean[7];
+
+	// filter states of the latest ticks, to fuse late measurements
+	private StateHistory history = null;
+	// time-stamps of the last fused measurement of each kind
+	private final long[] fusedTimestamps = new long[7];
+	// measurements fused since the last tick, with values and fusion times
+	private final boolean[] tickMeas = new boolean[7];
+	private final double[] tickValues = new double[7];
+	private final long[] tickTimes = new long[7];
+	// late measurements, and scratch for replaying the history
+	private final boolean[] lateMeas = new boolean[7];
+	private final int[] replayMeas = new int[14];
+	private final long[] replayTimes = new long[14];
+	private final double[] replayValues = new double[14];
+	private DenseMatrix64F replayX = null;
+	private DenseMatrix64F replayP = null;
+	private DenseMatrix64F replayZ = null;
+	// work matrices of the variable time-step path, filled in place
+	private DenseMatrix64F stepF = null;
+	private DenseMatrix64F stepQ = null;
+	private DenseMatrix64F measH = null;
+	private DenseMatrix64F measZ = null;
+	private final double[] predictedState = new double[5];
+	// cost of the history, CPU time in the navigation loop [ns]
+	private long historyNanos = 0;
+	private long historyTicks = 0;
+	private long replayedTicks = 0;
+	private long lateFused = 0;
+	private long lateTooOld = 0;
+	private long lateReplaced = 0;
+
 	// Generator for random numbers used to simulate measurement uncertainty
-	public static Random generator = new Random(1);
+	private Random generator = new Random(1);
 
 	public boolean filterSwitch = true;
 	public boolean compassSwitch = true;
@@ -77,22 +129,39 @@ public class Navigator {
 	public boolean encoderVelSwitch = true;
 	public boolean encoderTurnrateSwitch = true;
 	public boolean updateKSwitch = true;
-	public KalmanFilter kf = new NavFilter();
-
-	private final double dt = 0.1;
+	// fuse measurements as sequential scalar updates (requires diagonal R)
+	public boolean sequentialUpdateSwitch = false;
+	// propagate the filter to the time-stamp of each measurement
+	public boolean variableDtSwitch = true;
+	// fuse measurements arriving after the tick of their time-stamp at
+	// that time, by replaying the filter history (with variableDtSwitch)
+	public boolean outOfSequenceSwitch = true;
+	public int historySize = 16; // ticks of filter history kept
+	public KalmanFilter kf = new DenseNavFilter();
+
+	private double dt = 0.1; // time-step of the current iteration [s]
+	public double loopPeriod = 0.1; // period of the navigation loop [s]
+	// what the loop does when an iteration overruns its period
+	public LoopScheduler.OverrunPolicy overrunPolicy = LoopScheduler.OverrunPolicy.SKIP;
+	private LoopScheduler scheduler = null;
+	private long reportedOverruns = 0;
 	private int measDOF = 7;
 	private int stateDOF = 5;
 	
-	//times given in millisecs from start)
+	//times given in millisecs from the creation of the navigator, see getNavTime
 	private long lastTime = 0; // Time for current state, n, 
 	private long predictionTime = 0; // Time for predicted state, n+1 
-	private long timeBefore = 0; // Start-time given in milliseconds
+	// Origin of nav time on the monotonic clock, set when the navigator is
+	// created so that sensor samples taken before initTime share the time
+	// base; read by the sensor threads in toNavTime [ns]
+	private volatile long startNanos = 0;
+	private long tickOrigin = 0; // nav time of tick 0 of the loop [ms]
 
 	// waypoints and operation
-	private List<double[]> wp = new ArrayList<double[]>(); // waypoint list
-	private Iterator<double[]> wpIter = null;
+	private Route route = new Route(); // waypoints and cursor at cwp
 	private double[] cwp = null; // next waypoint on the path
 	private double[] lwp = null; // last waypoint on the path (just passed)
+	private final PurePursuit pursuit = new PurePursuit(); // path tracking
 	private double look_ahead = 10; // look-ahead distance
 	private double min_look_ahead = 2; // minimum look-ahead distance, when
 										// distance adapted not to overshoot
@@ -140,25 +209,36 @@ public class Navigator {
 	// simulated turnrate bias ( degrees/second clockwise)
 	private final double TURNRATE_BIAS = 10;
 	// Drift (m/s) caused by wind and currents
-	private final double[] DRIFT = {0.1, 0,1};
+	private final double[] DRIFT = {0.1, 0.1};
 	// *************************************************
 	
 	// Autonomous operation switch
-	private static boolean autoPilot = false;
+	private boolean autoPilot = false;
 	
 	// Current rudder angle on ioio
-	private static volatile int rudderAngle;
+	private volatile int rudderAngle;
 	
 	// Current load on ioio
-	private static volatile int load;
+	private volatile int load;
 	
 	// On/Off switch for engines and rudder
-	private static volatile boolean active;
+	private volatile boolean active;
+
+	// Operation switch, navigation waits for waypoints while it is set
+	private volatile boolean operative = false;
 	
-	public void initProject() {
-		this.prj = new Project(projectName);
+	/**
+	 * Navigator using the given time source, logger and project storage,
+	 * e.g. the system clock and the project on the device, or a simulated
+	 * clock and storage to run simulations off-device
+	 */
+	public Navigator(NavClock clock, NavLog log, NavStorage storage) {
+		this.clock = clock;
+		this.startNanos = clock.nanoTime();
+		this.prj = storage;
+		this.log = log;
 	}
-	
+
 	public void readResources() {
 		String[] intParams = { "resumeFromWp" };
 
@@ -181,20 +261,21 @@ public class Navigator {
 			try {
 				field = navClass.getDeclaredField(doubleParams[i]);
 			} catch (NoSuchFieldException e1) {
-				Log.e(TAG,"No such field:" + doubleParams[i]);
-				System.exit(1);
+				// parameter is not a navigator field, e.g. rudder_angle
+				log.e(TAG,"No such field:" + doubleParams[i]);
+				continue;
 			}
 			if (this.prj.containsKey(doubleParams[i])) {
 				try {
 					field.set(this,prj.getParameterAsDouble(doubleParams[i]));
 				} catch (IllegalArgumentException e) {
-					Log.e(TAG, e.getMessage());
+					log.e(TAG, e.getMessage());
 				} catch (IllegalAccessException e) {
-					Log.e(TAG, e.getMessage());
+					log.e(TAG, e.getMessage());
 				}
 	
 			} else {
-				Log.e(TAG,"Parameter " + doubleParams[i]
+				log.e(TAG,"Parameter " + doubleParams[i]
 						+ " not found in resource file");
 				System.exit(1);
 			}
@@ -203,22 +284,22 @@ public class Navigator {
 			try {
 				field = navClass.getDeclaredField(boolParams[i]);
 			} catch (NoSuchFieldException e1) {
-				Log.e(TAG,"No such field: " + e1.getMessage());
+				log.e(TAG,"No such field: " + e1.getMessage());
 				System.exit(1);
 			}
 			if (this.prj.containsKey(boolParams[i])) {
-				Log.d(TAG,boolParams[i] + "=" + ""
+				log.d(TAG,boolParams[i] + "=" + ""
 						+ prj.getParameterAsBoolean(boolParams[i]));
 				try {
 					field.set(this, prj.getParameterAsBoolean(boolParams[i]));
 				} catch (IllegalArgumentException e) {
-					Log.e(TAG, e.getMessage());
+					log.e(TAG, e.getMessage());
 				} catch (IllegalAccessException e) {
-					Log.e(TAG, e.getMessage());
+					log.e(TAG, e.getMessage());
 				}
 			} 
 			else {
-				Log.e(TAG,"Parameter " + boolParams[i]
+				log.e(TAG,"Parameter " + boolParams[i]
 						+ " not found in resource file");
 				System.exit(1);
 			}
@@ -228,29 +309,70 @@ public class Navigator {
 			try {
 				field = navClass.getDeclaredField(intParams[i]);
 			} catch (NoSuchFieldException e1) {
-				Log.e(TAG,"No such field: " + e1.getMessage());
+				log.e(TAG,"No such field: " + e1.getMessage());
 				System.exit(1);
 			}
 			if (this.prj.containsKey(intParams[i])) {
-				Log.d(TAG,intParams[i] + "=" + ""
+				log.d(TAG,intParams[i] + "=" + ""
 						+ prj.getParameterAsInt(intParams[i]));
 				try {
 					field.set(this, prj.getParameterAsInt(intParams[i]));
 				} catch (IllegalArgumentException e) {
-					Log.e(TAG, e.getMessage());
+					log.e(TAG, e.getMessage());
 				} catch (IllegalAccessException e) {
-					Log.e(TAG, e.getMessage());
+					log.e(TAG, e.getMessage());
 				}
-				Log.e(TAG,"Error: could not parse value of "
+				log.e(TAG,"Error: could not parse value of "
 						+ intParams[i] + " in resource file");
 			}
 			else {
-				Log.e(TAG,"Error: parameter " + intParams[i]
+				log.e(TAG,"Error: parameter " + intParams[i]
 						+ " not found in resource file");
 				System.exit(1);
 			}
 		}
 
+		// optional parameters, missing in resource files from older versions
+		if (this.prj.containsKey("sequentialUpdateSwitch"))
+			this.sequentialUpdateSwitch = prj
+					.getParameterAsBoolean("sequentialUpdateSwitch");
+		if (this.prj.containsKey("variableDtSwitch"))
+			this.variableDtSwitch = prj
+					.getParameterAsBoolean("variableDtSwitch");
+		if (this.prj.containsKey("outOfSequenceSwitch"))
+			this.outOfSequenceSwitch = prj
+					.getParameterAsBoolean("outOfSequenceSwitch");
+		// the history is sized by initNavigation
+		if (this.prj.containsKey("historySize")) {
+			int size = prj.getParameterAsInt("historySize");
+			if (size > 0)
+				this.historySize = size;
+			else
+				log.e(TAG, "historySize must be positive, using "
+						+ this.historySize);
+		}
+		// the period of a running loop is kept until the next initTime
+		if (this.prj.containsKey("loopPeriod")) {
+			double period = prj.getParameterAsDouble("loopPeriod");
+			if (period > 0)
+				this.loopPeriod = period;
+			else
+				log.e(TAG, "loopPeriod must be positive, using "
+						+ this.loopPeriod);
+		}
+		if (this.prj.containsKey("overrunPolicy")) {
+			try {
+				this.overrunPolicy = LoopScheduler.OverrunPolicy.valueOf(prj
+						.getParameterAsString("overrunPolicy").trim());
+			} catch (IllegalArgumentException e) {
+				log.e(TAG, "Unknown overrunPolicy, using "
+						+ this.overrunPolicy);
+			}
+			// a running loop changes policy at once
+			if (this.scheduler != null)
+				this.scheduler.setPolicy(this.overrunPolicy);
+		}
+
 	}
 
 	// simple vector algebra
@@ -365,30 +487,42 @@ public class Navigator {
 		return meas[6];
 	}
 	
+	public void initLogs() {
+		prj.initLogs();
+	}
+
 	public void log(String logName, String logStr) {
 		prj.log(logName, logStr);
 	}
 	
 	public void logState(double[] predState) {
-		// Write string to measlog
 		// X Y V Heading Turn-rate X_p Y_p V_p Heading_p Turn-rate_p
-		this.log("state", String.format(
-				"%d\t%f\t%f\t%f\t%f\t%f\t%f\t%f\t%f\t%f\t%f\n",
-				this.predictionTime, this.pos()[0], this.pos()[1],
-				this.V(), this.phi(), this.turn_rate(), predState[0],
-				predState[1], predState[2], predState[3], predState[4]));
+		for (int i = 0; i < this.stateDOF; i++) {
+			this.stateRecord[i] = state[i];
+			this.stateRecord[this.stateDOF + i] = predState[i];
+		}
+		prj.logRecord(TelemetryWriter.STATE, this.predictionTime,
+				this.stateRecord);
 	}
 
 	public void logMeas() {
-		double[] logMeas = { -999, -999, -999, -999, -999, -999, -999 };
 		for (int i = 0; i < timestamps.length; i++) {
-			if (timestamps[i] > this.lastTime)
-				logMeas[i] = meas[i];
+			if (this.isNewMeasurement(i))
+				this.measRecord[i] = meas[i];
+			else
+				this.measRecord[i] = -999;
 		}
-		this.log("meas", String.format(
-				"%d\t%f\t%f\t%f\t%f\t%f\t%f\t%f\n", this.predictionTime,
-				logMeas[0], logMeas[1], logMeas[2], logMeas[3], logMeas[4],
-				logMeas[5], logMeas[6]));
+		prj.logRecord(TelemetryWriter.MEAS, this.predictionTime,
+				this.measRecord);
+	}
+
+	// Measurement not fused yet and time-stamped in the interval of this
+	// iteration, those stamped after the prediction time are left for the
+	// next iteration
+	private boolean isNewMeasurement(int i) {
+		return this.timestamps[i] > this.fusedTimestamps[i]
+				&& this.timestamps[i] > this.lastTime
+				&& this.timestamps[i] <= this.predictionTime;
 	}
 
 	// get measurement time-stamps
@@ -464,7 +598,7 @@ public class Navigator {
 	
 	public void update_sim_state() {
 		double v =  this.V() + generator.nextGaussian() * sigmaV_GPS * 0.2;
-		double turnrate = this.turn_rate() + TURNRATE_BIAS;
+		double turnrate = this.turn_rate() + toRadians(TURNRATE_BIAS);
 		
 		// set randomly adjusted velocity
 		sim_state.set(2, v);
@@ -478,8 +612,8 @@ public class Navigator {
         
         // update sim_model (F matrix)
 		this.sim_model.set(0, 2, sin(sim_state.get(3)) * this.dt); // X
-		this.sim_state.set(1, 2, cos(sim_state.get(3)) * this.dt); // Y
-		this.sim_state.set(3, 4, this.dt); // phi		
+		this.sim_model.set(1, 2, cos(sim_state.get(3)) * this.dt); // Y
+		this.sim_model.set(3, 4, this.dt); // phi		
         
 	}
 	
@@ -489,233 +623,40 @@ public class Navigator {
 		// Set next wp to current, and current wp to last
 		this.lwp = this.cwp;// set lwp to cwp
 		this.resumeFromWp++;
-		try {
-			this.cwp = this.wpIter.next(); // set cwp to next wp
-		} catch (NoSuchElementException e) {
+		if (!this.route.hasNext()) {
 			this.cwp = null;
 			return false;
 		}
+		this.cwp = this.route.next(); // set cwp to next wp
 
 		return true;
 	}
 
-	public double[] findGoalPoint(double cx, double cy, double radius,
-			double[] point1, double[] point2, double[] b) {
-		double dx, dy, A, B, C, det, t;
-		dx = point2[0] - point1[0];
-		dy = point2[1] - point1[1];
-		A = dx * dx + dy * dy;
-		B = 2 * (dx * (point1[0] - cx) + dy * (point1[1] - cy));
-		C = (point1[0] - cx) * (point1[0] - cx) + (point1[1] - cy)
-				* (point1[1] - cy) - radius * radius;
-		det = B * B - 4 * A * C;
-		if ((A <= 0.0000001) || (det < 0)) {
-			// No real solutions.
-			double[] intersection1 = null;
-			return intersection1;
-		} else if (det == 0) {
-			// One solution.
-			t = -B / (2 * A);
-			double[] intersection1 = { point1[0] + t * dx, point1[1] + t * dy };
-			return intersection1;
-		} else {
-			// Two solutions.
-			t = (-1 * B + Math.sqrt(det)) / (2 * A);
-			double[] intersection1 = { point1[0] + t * dx, point1[1] + t * dy };
-
-			// Check if x-coordinate of intersection1 is between b (closest
-			// point on path) and point2 (current waypoint)
-			// otherwise return the other intersection
-			if ((intersection1[0] > b[0] && intersection1[0] <= point2[0])
-					|| (intersection1[0] < b[0] && intersection1[0] >= point2[0])) {
-				return intersection1;
-			} else {
-				t = (-1 * B - Math.sqrt(det)) / (2 * A);
-				double[] intersection2 = { point1[0] + t * dx,
-						point1[1] + t * dy };
-				return intersection2;
-			}
-		}
-	}
-		
 	public double getTurnrate() {
-		/*
-		 * pure pursuit algorithm following "Path Tracking for unmanned vehicle
-		 * navigation - implementation and adaptation of the pure pursuit
-		 * algorithm" By Defense Research and Development Canada
-		 */
-		// Transform to body-frame, phi is in clockwise-direction
-		double[] lwpb = this.nav2body(this.lwp);
-		double[] cwpb = this.nav2body(this.cwp);
-		double[] posb = this.nav2body(this.pos());
-
-		/*
-		 * debug settings double[] lwp = {5.443,6.506}; double[] cwp =
-		 * {15.443,23.827}; double[] pos = {11.055,7.466};
-		 * 
-		 * double[] lwpb = this.nav2body(lwp); double[] cwpb =
-		 * this.nav2body(cwp); double[] posb = this.nav2body(pos);
-		 */
-
-		// angle to cwp in body-frame
-		// targetAngle is positive in counter-clockwise direction
-		// atan2 gives angle from x-axis,
-		// this is transfered to heading angle by mult. by -1 and adding PI/2
-		// double targetAngle = PI/2.0 - atan2(cwpb[0],cwpb[1]);
-		double targetAngle = atan2(cwpb[1], cwpb[0]) - PI / 2.0;
-
-		/*
-		 * if(cwpb[0]==0) { if(cwpb[1]>=0) targetAngle=0; else
-		 * targetAngle=Math.PI; } else if(cwpb[1]==0) { if(cwpb[1]>=0)
-		 * targetAngle=-0.5*Math.PI; else targetAngle=0.5*Math.PI; } else
-		 * if(cwpb[1]>0) //first quadrant or fourth quadrant
-		 * targetAngle=0.5*Math.PI+Math.atan(cwpb[1]/cwpb[0]); //second and
-		 * third quadrant else
-		 * targetAngle=Math.PI*0.5-Math.atan(Math.abs(cwpb[1]/cwpb[0]));
-		 */
-		// Assure that the smallest angle is given to the target
-		if (targetAngle > PI)
-			targetAngle -= 2 * PI;
-		if (targetAngle < -1 * PI)
-			targetAngle += 2 * PI;
-
-		// if ship is oriented totally wrong direction,
-		if (abs(targetAngle) > 0.5 * PI) {
-			// a high number is returned to give the maximum turn-rate,
-			// targetAngle is defined in counter-clockwise direction
-			// the turn rate is returned in clockwise direction
-			double maxTurnRate = this.V() / this.min_turn_radius;
-			return -1 * maxTurnRate * signum(targetAngle);
-		}
-		double[] v = minus(lwpb, cwpb); // vector between waypoints
-		double[] w = minus(lwpb, posb);
-
-		double bmag = dot(w, v) / mag(v);
-		double bnorm = bmag / mag(v);
-
-		double[] b = new double[2];
-		b[0] = lwpb[0] + bnorm * v[0];
-		b[1] = lwpb[1] + bnorm * v[1];
-
-		double Lcwp = mag(minus(posb, cwpb)); // distance to next waypoint,
-		double Lerr = mag(minus(posb, b)); // distance to waypoint path
-		// look-ahead is adapted to hit next waypoint and to be more stable (by
-		// considering the distance to the path)
-		double Ladapt = max(this.min_look_ahead,
-				min(Lerr + this.look_ahead, Lcwp));
-
-		double[] goal = this.findGoalPoint(0, 0, Ladapt, lwpb, cwpb, b);
-		double x = Math.abs(goal[0]);
-		// double x = mag(minus(posb,b));
-		// double y = sqrt(pow(Ladapt,2)-pow(x,2));
-
-		// goal[0]=b[0]+y*v[0]/mag(v);
-		// goal[1]=b[1]+y*v[1]/mag(v);
-
-		// double[] xvec =minus(posb,b);
-		// double turnDirection = signum(xvec[0]); //turn direction is negative
-		// if goal is on the left of the ship
-		double turnDirection = signum(goal[0]); // turn direction is negative if
-												// goal is on the left of the
-												// ship
-		double curvature = 2 * x / pow(Ladapt, 2);
-		// Turn-rate is positive clockwise
-		double new_turn_rate = curvature * this.V() * turnDirection;
-		double radius = 1 / curvature;
-		double[] centre = new double[2];
-		centre[0] = posb[0] + radius * (b[0] - posb[0]) / x;
-		centre[1] = posb[1] + radius * (b[1] - posb[1]) / x;
-
-		b = this.body2nav(b);
-		centre = this.body2nav(centre);
-		goal = this.body2nav(goal);
-		//double theta1 = this.phi(); // limit set for unit circle, 0 deg in
-									// body-frame equals phi in nav-frame
-		// sector limit, if goal is on the left, turnDirection
-		// is negative
-		//double theta2 = this.phi() - turnDirection * toRadians(90); 
-		double[] dir = new double[2];
-		dir[0] = 0;
-		dir[1] = 1.0;
-		dir = this.body2nav(dir);
-
-		// double theta1=0;
-		// double theta2=-1*turnDirection*toRadians(90);
+		// pure pursuit, see PurePursuit
+		this.pursuit.configure(this.look_ahead, this.min_look_ahead,
+				this.min_turn_radius);
+		double new_turn_rate = this.pursuit.turnRate(state[0], state[1],
+				this.phi(), this.V(), this.lwp, this.cwp);
+		if (!this.pursuit.hasGeometry())
+			return new_turn_rate;
+
 		// logging algorithm geometry for plotting
-		this.log("nav", String.format("time: %d\n", this.lastTime));
-		this.log("nav", "points\tX\tY\n");
-		// this.navlog.write(String.format("cwp\t%f\t%f\n",this.cwp[0],this.cwp[1]));
-		// this.navlog.write(String.format("lwp\t%f\t%f\n",this.lwp[0],this.lwp[1]));
-		this.log("nav", String.format("pos\t%f\t%f\n", this.pos()[0],
-				this.pos()[1]));
-		// this.navlog.write(String.format("goal\t%f\t%f\n",goal[0],goal[1]));
-		// this.navlog.write(String.format("centre\t%f\t%f\n",centre[0],centre[1]));
-		this.log("nav", "endpoints\n");
-		this.log("nav", "lines\tX1\tY1\tX2\tY2\n");
-		this.log("nav", String.format("v\t%f\t%f\t%f\t%f\n", this.lwp[0],
-				this.lwp[1], this.cwp[0], this.cwp[1]));
-		// this.navlog.write(String.format("w\t%f\t%f\t%f\t%f\n",this.lwp[0],this.lwp[1],this.pos()[0],this.pos()[1]));
-		// this.navlog.write(String.format("b\t%f\t%f\t%f\t%f\n",this.lwp[0],this.lwp[1],b[0],b[1]));
-		// this.navlog.write(String.format("d\t%f\t%f\t%f\t%f\n",centre[0],centre[1],b[0],b[1]));
-		// this.navlog.write(String.format("x\t%f\t%f\t%f\t%f\n",this.pos()[0],this.pos()[1],b[0],b[1]));
-		// this.navlog.write(String.format("y\t%f\t%f\t%f\t%f\n",b[0],b[1],goal[0],goal[1]));
-		this.log("nav", String.format("Dir\t%f\t%f\t%f\t%f\n",
-				this.pos()[0], this.pos()[1], dir[0], dir[1]));
-		this.log("nav", String.format("Ladapt\t%f\t%f\t%f\t%f\n",
-				this.pos()[0], this.pos()[1], goal[0], goal[1]));
-		this.log("nav", "endlines\n");
-		this.log("nav", "circless\tX\tY\tR\ttheta1\ttheta2\n");
-		// this.navlog.write(String.format("curvature\t%f\t%f\t%f\t%f\t%f\n",centre[0],centre[1],radius,theta1,theta2));
-		this.log("nav", "endcircles\n");
+		this.navRecord[0] = state[0];
+		this.navRecord[1] = state[1];
+		this.navRecord[2] = this.lwp[0];
+		this.navRecord[3] = this.lwp[1];
+		this.navRecord[4] = this.cwp[0];
+		this.navRecord[5] = this.cwp[1];
+		this.navRecord[6] = this.pursuit.getDirX();
+		this.navRecord[7] = this.pursuit.getDirY();
+		this.navRecord[8] = this.pursuit.getGoalX();
+		this.navRecord[9] = this.pursuit.getGoalY();
+		prj.logRecord(TelemetryWriter.NAV, this.lastTime, this.navRecord);
 
 		return new_turn_rate;
 	}
 
-	public double[] nav2body(double[] vec) {
-		/*
-		 * Translates origo to the vehicle pos and rotates the Y axis to align
-		 * with the body-frame
-		 */
-		double[] bfvec = new double[2];
-		// debug setting: double[] pos = {11.055,7.466};
-
-		// Translation and Rotation
-		// Note that heading is defined positive in clockwise direction, thus
-		// the minus in the rotations
-		// phi is in radians!
-		// debug setting: double phi=0.52333;
-		bfvec[0] = cos(this.phi()) * (vec[0] - this.pos()[0]) - sin(this.phi())
-				* (vec[1] - this.pos()[1]);
-		bfvec[1] = sin(this.phi()) * (vec[0] - this.pos()[0]) + cos(this.phi())
-				* (vec[1] - this.pos()[1]);
-		return bfvec;
-	}
-
-	public double[] body2nav(double[] vec) {
-		/*
-		 * Rotates the coordinate system to align with the navigation frame,
-		 * then translate origo
-		 */
-		// debug setting: double[] pos = {11.055,7.466};
-		// debug setting: double phi=0.52333;
-
-		double[] nfvec = new double[2];
-
-		// Rotation
-		// Note that heading is defined positive in clockwise direction, thus
-		// the minus in the rotations
-		nfvec[0] = cos(-1 * this.phi()) * vec[0] - sin(-1 * this.phi())
-				* vec[1];
-		nfvec[1] = sin(-1 * this.phi()) * vec[0] + cos(-1 * this.phi())
-				* vec[1];
-
-		// Translation
-		nfvec[0] = nfvec[0] + this.pos()[0];
-		nfvec[1] = nfvec[1] + this.pos()[1];
-		return nfvec;
-
-	}
-
 	public boolean reachedWP() {
 		double dist = sqrt(pow(this.cwp[0] - this.pos()[0], 2)
 				+ pow(this.cwp[1] - this.pos()[1], 2));
@@ -727,11 +668,11 @@ public class Navigator {
 	}
 	
 	public boolean reachedLastWP() {
-		return wpIter.hasNext() == false;
+		return this.route.hasNext() == false;
 	}
 
 	public void setWaypoints() {
-		this.wp = prj.read_waypoints();	
+		this.route = new Route(prj.read_waypoints());
 	}
 
 	// Kalman filtering
@@ -753,37 +694,54 @@ public class Navigator {
 	}
 
 	public DenseMatrix64F createF() {
-		// state transition matrix
-		DenseMatrix64F F = new DenseMatrix64F(this.stateDOF, this.stateDOF);
+		return this.createF(this.dt);
+	}
+
+	// state transition matrix for a time-step of dt seconds
+	public DenseMatrix64F createF(double dt) {
+		return this.createF(dt, new DenseMatrix64F(this.stateDOF,
+				this.stateDOF));
+	}
+
+	// fills F with the state transition matrix for dt seconds
+	public DenseMatrix64F createF(double dt, DenseMatrix64F F) {
 		// set diagonal to 1
-		for (int i = 0; i < 5; i++)
-			F.set(i, i, 1);
-		F.set(0, 2, sin(this.phi()) * this.dt); // X
-		F.set(1, 2, cos(phi()) * this.dt); // Y
-		F.set(3, 4, this.dt); // phi
+		CommonOps.setIdentity(F);
+		F.set(0, 2, sin(this.phi()) * dt); // X
+		F.set(1, 2, cos(phi()) * dt); // Y
+		F.set(3, 4, dt); // phi
 		return F;
 	}
 
 	public DenseMatrix64F createQ() {
+		return this.createQ(this.dt);
+	}
+
+	// process noise for a time-step of dt seconds
+	public DenseMatrix64F createQ(double dt) {
+		return this.createQ(dt, new DenseMatrix64F(this.stateDOF,
+				this.stateDOF));
+	}
+
+	// fills Q with the process noise for dt seconds
+	public DenseMatrix64F createQ(double dt, DenseMatrix64F Q) {
 		// dead reckoning uncertainty correlation matrix
-		DenseMatrix64F Q = new DenseMatrix64F(this.stateDOF, this.stateDOF);
+		Q.zero();
 
 		// estimate variance in body-frame x coordinate
 		// increases for each step using dead-reckoning
-		double sigmaX = 0.5 * this.ax_max * this.dt * this.dt
-				* sqrt(this.nsteps);
+		double sigmaX = 0.5 * this.ax_max * dt * dt * sqrt(this.nsteps);
 
 		// increases for each step using dead-reckoning
-		double sigmaY = 0.5 * this.ay_max * this.dt * this.dt
-				* sqrt(this.nsteps);
+		double sigmaY = 0.5 * this.ay_max * dt * dt * sqrt(this.nsteps);
 
 		// estimate variance in speed
 		// double a_max=0.5;
-		double sigmaV = 0.5 * this.ay_max * this.dt * sqrt(this.nsteps);
+		double sigmaV = 0.5 * this.ay_max * dt * sqrt(this.nsteps);
 
 		// estimate variance in heading
 		// increases for each step using dead-reckoning
-		double sigmaPhi = PI * toRadians(this.max_dir_change) * this.dt
+		double sigmaPhi = PI * toRadians(this.max_dir_change) * dt
 				* sqrt(this.nsteps);
 
 		// estimate variance in turn rate
@@ -807,7 +765,11 @@ public class Navigator {
 
 	public DenseMatrix64F createZ() {
 		// return measurements as DenseMatrix64F
-		DenseMatrix64F z = new DenseMatrix64F(this.measDOF, 1);
+		return this.createZ(new DenseMatrix64F(this.measDOF, 1));
+	}
+
+	// fills z with the measurements
+	public DenseMatrix64F createZ(DenseMatrix64F z) {
 		for (int i = 0; i < this.measDOF; i++)
 			z.set(i, 0, meas[i]);
 		return z;
@@ -842,13 +804,13 @@ public class Navigator {
 		// prediction is made just before updating the filter
 		// This way a time-step matching the measurements can be choosen
 		
-		Navigator.startMotor();
+		this.startMotor();
 		
-		while (Navigator.getActive()) {
+		while (this.getActive()) {
 
 			// Check if waypoint is reached
 			if (this.reachedWP()) {
-				Log.i(TAG, String.format("Reached wp: %f,%f",
+				log.i(TAG, String.format("Reached wp: %f,%f",
 						this.cwp[0], this.cwp[1]));
 				// Move on to next waypoint
 				if (!this.nextWP())
@@ -857,21 +819,33 @@ public class Navigator {
 
 			// Step dt to prediction time
 			this.updateTime();
-			Log.d(TAG, String.format(
+
+			// take the sensor samples that arrived while waiting
+			this.drainSamples();
+			log.d(TAG, String.format(
 					"step %d, time %f7.1, x: %f, y %f, V %f, phi %f, beta %f",
 					iter, this.predictionTime / 1000.0, state[0], state[1],
 					state[2], state[3], state[4]));
 
+			// with variable time-steps the filter is propagated to each
+			// measurement below, the plain prediction is only logged
+			boolean variableDt = this.variableDtSwitch && this.filterSwitch;
+
 			// Run Kalman prediction (move down after GPS-reading for real nav)
-			this.kf.predict();
-			
-			this.nsteps += 1; // increment dead-reckoning step counter
+			double[] predictedState;
+			if (variableDt) {
+				predictedState = this.predictState(this.dt,
+						this.predictedState);
+			} else {
+				this.kf.predict();
+				// Save predicted state from Kalman filter
+				predictedState = this.getState();
+			}
 
-			// Save predicted state from Kalman filter
-			double[] predictedState = this.getState();
+			this.nsteps += 1; // increment dead-reckoning step counter
 
 			// predict state
-			state = this.getState();
+			System.arraycopy(predictedState, 0, state, 0, this.stateDOF);
 			
 			// update simulated state
 			if (this.simulator)
@@ -882,16 +856,48 @@ public class Navigator {
 			boolean[] newMeas = { false, false, false, false, false, false,
 					false };
 			for (int i = 0; i < timestamps.length; i++) {
-				if (timestamps[i] > this.lastTime)
+				if (this.isNewMeasurement(i))
 					newMeas[i] = true;
 			}
+			boolean outOfSequence = variableDt && this.outOfSequenceSwitch;
 			
 			// update filter only using new measurements
-			if (this.filterSwitch)
+			if (outOfSequence) {
+				long t0 = System.nanoTime();
+				// measurements newer than the last fused of their kind, but
+				// time-stamped before the current state
+				boolean late = false;
+				for (int i = 0; i < timestamps.length; i++) {
+					this.lateMeas[i] = timestamps[i] <= this.lastTime
+							&& timestamps[i] > this.fusedTimestamps[i];
+					late |= this.lateMeas[i];
+				}
+				if (late)
+					this.fuseLate(this.lateMeas, newMeas);
+				this.historyNanos += System.nanoTime() - t0;
+			}
+			if (variableDt)
+				this.fuseAtTimestamps(newMeas);
+			else if (this.filterSwitch) {
 				this.kf.partialUpdate(newMeas, this.createZ(), this.R);
+				for (int i = 0; i < timestamps.length; i++) {
+					if (newMeas[i])
+						this.fusedTimestamps[i] = timestamps[i];
+				}
+			}
 
 			// get updated state from Kalman filter or from measurements
-			state = this.getState();
+			this.readState();
+
+			if (outOfSequence) {
+				long t0 = System.nanoTime();
+				this.history.add(this.predictionTime, this.kf.getState(),
+						this.kf.getCovariance(), this.nsteps, this.tickMeas,
+						this.tickValues, this.tickTimes);
+				Arrays.fill(this.tickMeas, false);
+				this.historyNanos += System.nanoTime() - t0;
+				this.historyTicks++;
+			}
 
 			this.logState(predictedState);
 
@@ -906,56 +912,258 @@ public class Navigator {
 			// update velocity and heading measurements from load and rudder
 			// This is done here since filter has just been updated and
 			// variables are up-to-date
-			this.updateEncoders(Navigator.getMotorLoad(), turn_rate);
+			this.updateEncoders(this.getMotorLoad(), turn_rate);
 
 			// k should only be updated if ship is cruising at steady speed
-			if (this.V() > 0.5 & Navigator.getMotorLoad() > 0 & this.updateKSwitch)
-				this.update_k(3.0, Navigator.getMotorLoad());
+			if (this.V() > 0.5 & this.getMotorLoad() > 0 & this.updateKSwitch)
+				this.update_k(3.0, this.getMotorLoad());
 
 			// Uncertainty matrices are updated using the current readings
 			this.configureFilter();
 			iter++;
 		}
 		
-		Navigator.stopMotor();
+		this.stopMotor();
 
 		// write last waypoint index to resume later
 		// If last waypoints has been reached, no resume is wanted
-		if (Navigator.getAutopilot() && (this.resumeFromWp < this.wp.size() - 1)) {
+		if (this.getAutopilot() && (this.resumeFromWp < this.route.size() - 1)) {
 			prj.setInt("resumeFromWp", this.resumeFromWp);
 			prj.write();
 		}
 		// clear waypoint list, to prepare for new instructions
 		this.clearWaypointList();
 		// Switch to manual drive to wait for new instructions
-		Navigator.setAutopilot(false);
+		this.setAutopilot(false);
 	}
 
 	public double progressEstimate() {
 		//returns the percentag of planned route that has been covered
-		if (this.wp.size() > 1) {
-			Iterator<double[]> itr = null;
-			double[] p1 = null;
-			double[] p2 = null;
-			double doneDist = 0;
-			double totDist = 0;
-			int ind=0;
-			itr=wp.iterator();
-			p2=itr.next();
-			while(itr.hasNext()) {
-				p1=p2;
-				p2=itr.next();
-				ind++;
-				double segment = mag(minus(p1, p2)); 
-				if(ind<=this.resumeFromWp)
-					doneDist+=segment;
-				totDist+= segment;
+		if (this.route.size() > 1)
+			return this.doneDistance() / this.route.length() * 100.0;
+		return this.resumeFromWp / ((double) this.route.size()) * 100;
+	}
+
+	// Distance along the route that has been covered, including the part
+	// of the current leg lwp->cwp
+	public double doneDistance() {
+		if (this.route.isEmpty())
+			return 0;
+		if (this.cwp == null) {
+			// finished, or waiting to start from resumeFromWp
+			if (this.route.index() >= this.route.size())
+				return this.route.length();
+			return this.route.distance(min(this.resumeFromWp,
+					this.route.size() - 1));
+		}
+		int c = this.route.index() - 1; // index of cwp
+		if (c == 0)
+			return 0;
+		// fraction of the leg from the previous waypoint to cwp
+		double ax = this.route.getX(c - 1);
+		double ay = this.route.getY(c - 1);
+		double vx = this.cwp[0] - ax;
+		double vy = this.cwp[1] - ay;
+		double len2 = vx * vx + vy * vy;
+		double t = 1;
+		if (len2 > 0) {
+			double[] p = this.pos();
+			t = max(0, min(1, ((p[0] - ax) * vx + (p[1] - ay) * vy) / len2));
+		}
+		double legStart = this.route.distance(c - 1);
+		return legStart + t * (this.route.distance(c) - legStart);
+	}
+
+	// Distance left to the last waypoint, from the position via cwp
+	public double remainingDistance() {
+		if (this.cwp == null)
+			return this.route.length() - this.doneDistance();
+		int c = this.route.index() - 1;
+		double[] p = this.pos();
+		return sqrt(pow(this.cwp[0] - p[0], 2) + pow(this.cwp[1] - p[1], 2))
+				+ this.route.length() - this.route.distance(c);
+	}
+
+	// Estimated time left to the last waypoint at the current speed [s]
+	public double eta() {
+		double v = this.V();
+		if (v <= MIN_ETA_SPEED)
+			return Double.POSITIVE_INFINITY;
+		return this.remainingDistance() / v;
+	}
+
+	/**
+	 * Propagates the filter from lastTime to the time-stamp of each new
+	 * measurement in turn and fuses the measurements there, then on to the
+	 * prediction time. F and Q are built for each interval. Time-stamps
+	 * before the interval of this iteration, from measurements too old for
+	 * the history, are fused at its start.
+	 */
+	private void fuseAtTimestamps(boolean[] newMeas) {
+		DenseMatrix64F z = this.createZ(this.measZ);
+		boolean[] pending = this.pendingMeas;
+		System.arraycopy(newMeas, 0, pending, 0, pending.length);
+		// F is built from the heading of the filter at lastTime
+		this.readState();
+		long filterTime = this.lastTime;
+		while (true) {
+			// earliest time-stamp among the measurements not yet fused
+			long epoch = Long.MAX_VALUE;
+			for (int i = 0; i < pending.length; i++) {
+				if (pending[i] && this.timestamps[i] < epoch)
+					epoch = this.timestamps[i];
+			}
+			if (epoch == Long.MAX_VALUE)
+				break;
+			for (int i = 0; i < pending.length; i++) {
+				this.epochMeas[i] = pending[i] && this.timestamps[i] == epoch;
+				if (this.epochMeas[i])
+					pending[i] = false;
+			}
+			long t = max(epoch, filterTime);
+			this.propagate(t - filterTime);
+			filterTime = t;
+			this.kf.partialUpdate(this.epochMeas, z, this.R);
+			this.readState();
+			// recorded for replays of the history
+			for (int i = 0; i < pending.length; i++) {
+				if (this.epochMeas[i]) {
+					this.tickMeas[i] = true;
+					this.tickValues[i] = meas[i];
+					this.tickTimes[i] = t;
+					this.fusedTimestamps[i] = this.timestamps[i];
+				}
 			}
-			return doneDist/totDist*100.0;
 		}
-			
-		return this.resumeFromWp / ((double) this.wp.size()) * 100;
-		
+		this.propagate(this.predictionTime - filterTime);
+	}
+
+	/**
+	 * Fuses late measurements, time-stamped before lastTime, at their
+	 * time-stamps. The filter is rewound to the latest tick of the history
+	 * at or before the earliest of them, and the following ticks are
+	 * replayed up to lastTime with their recorded measurements and the late
+	 * ones. The replayed ticks replace those of the history. Measurements
+	 * older than the history are moved to newMeas, to be fused at lastTime.
+	 *
+	 * The history keeps one measurement of each kind per tick. A late one
+	 * replaces the measurement of its kind recorded for its tick, which was
+	 * taken before it, as the latest of a kind does in an iteration. Every
+	 * later replay then fuses the same measurements as this one.
+	 */
+	private void fuseLate(boolean[] late, boolean[] newMeas) {
+		long earliest = Long.MAX_VALUE;
+		int n = this.history.size();
+		for (int i = 0; i < late.length; i++) {
+			if (!late[i])
+				continue;
+			if (n < 2 || this.timestamps[i] < this.history.getTime(0)) {
+				late[i] = false;
+				newMeas[i] = true;
+				this.lateTooOld++;
+			} else if (this.timestamps[i] >= this.history.getTime(n - 1)) {
+				// at lastTime, fused there as an in-sequence measurement
+				late[i] = false;
+				newMeas[i] = true;
+			} else if (this.timestamps[i] < earliest)
+				earliest = this.timestamps[i];
+		}
+		if (earliest == Long.MAX_VALUE)
+			return;
+
+		int steps = this.nsteps;
+		int start = this.history.find(earliest);
+		this.history.getState(start, this.replayX, this.replayP);
+		this.kf.setState(this.replayX, this.replayP);
+		for (int e = start + 1; e < n; e++) {
+			long filterTime = this.history.getTime(e - 1);
+			long tickTime = this.history.getTime(e);
+			// measurements of the interval, late ones replace those recorded
+			int count = 0;
+			for (int i = 0; i < late.length; i++) {
+				if (late[i] && this.timestamps[i] >= filterTime
+						&& this.timestamps[i] < tickTime) {
+					this.replayMeas[count] = i;
+					this.replayTimes[count] = this.timestamps[i];
+					this.replayValues[count++] = meas[i];
+					if (this.history.isFused(e, i))
+						this.lateReplaced++;
+					this.history.addMeasurement(e, i, meas[i],
+							this.timestamps[i]);
+					this.fusedTimestamps[i] = this.timestamps[i];
+					this.lateFused++;
+				} else if (this.history.isFused(e, i)) {
+					this.replayMeas[count] = i;
+					this.replayTimes[count] = this.history.getFusedTime(e, i);
+					this.replayValues[count++] = this.history.getValue(e, i);
+				}
+			}
+			this.nsteps = this.history.getNsteps(e);
+			this.readState();
+			while (count > 0) {
+				// fuse the measurements of the earliest time, one of each kind
+				int first = 0;
+				for (int j = 1; j < count; j++) {
+					if (this.replayTimes[j] < this.replayTimes[first])
+						first = j;
+				}
+				long t = this.replayTimes[first];
+				Arrays.fill(this.epochMeas, false);
+				for (int j = 0; j < count; j++) {
+					int i = this.replayMeas[j];
+					if (this.replayTimes[j] != t || this.epochMeas[i])
+						continue;
+					this.epochMeas[i] = true;
+					this.replayZ.set(i, 0, this.replayValues[j]);
+					// remove by moving the last one here
+					count--;
+					this.replayMeas[j] = this.replayMeas[count];
+					this.replayTimes[j] = this.replayTimes[count];
+					this.replayValues[j] = this.replayValues[count];
+					j--;
+				}
+				this.propagate(t - filterTime);
+				filterTime = t;
+				this.kf.partialUpdate(this.epochMeas, this.replayZ, this.R);
+				this.readState();
+			}
+			this.propagate(tickTime - filterTime);
+			this.history.setState(e, this.kf.getState(),
+					this.kf.getCovariance());
+			this.replayedTicks++;
+		}
+		this.nsteps = steps;
+		this.readState();
+	}
+
+	// Kalman prediction over the given number of milliseconds
+	private void propagate(long millis) {
+		if (millis <= 0)
+			return;
+		double stepDt = millis / 1000.0;
+		this.kf.configure(this.createF(stepDt, this.stepF),
+				this.createQ(stepDt, this.stepQ), this.measH);
+		this.kf.predict();
+		this.readState();
+	}
+
+	// Current state moved dt seconds ahead by the transition matrix, into
+	// predicted
+	private double[] predictState(double dt, double[] predicted) {
+		DenseMatrix64F F = this.createF(dt, this.stepF);
+		for (int i = 0; i < this.stateDOF; i++) {
+			predicted[i] = 0;
+			for (int j = 0; j < this.stateDOF; j++)
+				predicted[i] += F.get(i, j) * state[j];
+		}
+		return predicted;
+	}
+
+	// Copies the state of the filter to state, without allocating
+	private void readState() {
+		DenseMatrix64F sMatrix = kf.getState();
+		for (int i = 0; i < sMatrix.numRows; i++)
+			state[i] = sMatrix.get(i);
 	}
 
 	public double[] getState() {
@@ -1047,7 +1255,31 @@ public class Navigator {
 	}
 
 	
-	// simulation and measurements
+	/**
+	 * Queues a GPS fix for the navigation loop, may be called from any
+	 * thread
+	 */
+	public void postGPS(double x, double y, long t, float accuracy) {
+		if (!this.samples.offer(MeasurementQueue.GPS, t, x, y, accuracy))
+			log.e(TAG, "Measurement queue full, GPS fix dropped");
+	}
+
+	/**
+	 * Queues a compass heading for the navigation loop, may be called from
+	 * any thread
+	 */
+	public void postCompass(double heading, long t) {
+		if (!this.samples.offer(MeasurementQueue.COMPASS, t, heading, 0, 0))
+			log.e(TAG, "Measurement queue full, compass reading dropped");
+	}
+
+	// Passes the queued samples to updateGPS and updateCompass, on the
+	// navigation thread
+	public int drainSamples() {
+		return this.samples.drain(this.sampleConsumer);
+	}
+
+	// simulation and measurements, called on the navigation thread
 	public void updateGPS(double[] new_pos, long t, float accuracy) {
 		this.set_GPS_accuracy(accuracy);
 		
@@ -1055,7 +1287,10 @@ public class Navigator {
 			// Assumes prediction has been made of new position
 			double r1 = generator.nextGaussian();
 			double r2 = generator.nextGaussian();
-			new_pos = this.pos();
+			if (this.sim_state != null)
+				new_pos = new double[] { sim_state.get(0), sim_state.get(1) };
+			else
+				new_pos = this.pos();
 			new_pos[0] += r1 * this.sigmaX_GPS;
 			new_pos[1] += r2 * this.sigmaX_GPS;
 		}
@@ -1092,26 +1327,45 @@ public class Navigator {
 		this.set_phi_compass_time(t);
 	}
 
+	/**
+	 * Sets GPS and compass measurements as logged in meas.log, where -999
+	 * marks that there was no new value, with time-stamp t. Used to replay
+	 * recorded runs, the encoder columns are left to the controller.
+	 */
+	public void setLoggedMeasurements(double[] logMeas, long t) {
+		for (int i = 0; i < 5; i++) {
+			if (logMeas[i] != -999) {
+				meas[i] = logMeas[i];
+				this.timestamps[i] = t;
+			}
+		}
+		// as in updateGPS
+		if (logMeas[0] != -999)
+			this.nsteps = 1;
+	}
+
 	public void updateEncoders(double load, double turn_rate) {
 		long t;
+		// simulated readings are taken just after the prediction time, so
+		// that they are fused in the next iteration
 		if (this.simulator)
-			t = this.predictionTime;
+			t = this.predictionTime + 1;
 		else
-			t = System.currentTimeMillis();
+			t = this.getNavTime();
 
 
 		if (this.encoderVelSwitch) {
-			Navigator.setMotorLoad(85);
-			this.set_V_load(pow(Navigator.getMotorLoad() / this.k, 1 / 3.0));
+			this.setMotorLoad(85);
+			this.set_V_load(pow(this.getMotorLoad() / this.k, 1 / 3.0));
 			this.set_V_load_time(t);
-			Navigator.setMotorLoad((int) load);
+			this.setMotorLoad((int) load);
 		}
 
 		if (this.encoderTurnrateSwitch) {
 			if (this.V() == 0)
-				Navigator.setRudderAngle(0);
+				this.setRudderAngle(0);
 			else
-				Navigator.setRudderAngle((int) turn_rate2angle(turn_rate, this.V()));
+				this.setRudderAngle((int) turn_rate2angle(turn_rate, this.V()));
 			
 			this.set_turn_rate_rudder(turn_rate);
 			this.set_turn_rate_rudder_time(t);
@@ -1121,18 +1375,32 @@ public class Navigator {
 
 	public void updateTime() {
 		// Set current time to the predicted time
-		// Take a time-step dt for the predicted time
 		this.lastTime = this.predictionTime;
-		
+
+		// wait for the next tick, measurements arriving meanwhile are fused
+		// in this iteration
+		int periods = 1;
 		try {
-			Thread.sleep(this.predictionTime - System.currentTimeMillis());
+			periods = this.scheduler.awaitNext();
 		} catch (InterruptedException e) {
-			Log.e(TAG, "Error while waiting for time update");
+			log.e(TAG, "Error while waiting for time update");
 			e.printStackTrace();
 		}
+		if (this.scheduler.getOverruns() > this.reportedOverruns) {
+			this.reportedOverruns = this.scheduler.getOverruns();
+			log.i(TAG, String.format("Navigation loop overrun, %d ms late",
+					this.scheduler.getLastJitter() / 1000000));
+		}
+
+		// tick time relative to the start time
+		this.predictionTime = this.tickOrigin + this.scheduler.getTickMillis();
 
-		// this.dt converted from seconds to milliseconds
-		this.predictionTime += this.dt * 1000;
+		// the time-step covers the ticks missed by a stretched iteration
+		double stepDt = periods * this.scheduler.getPeriodNanos() / 1e9;
+		if (stepDt != this.dt) {
+			this.dt = stepDt;
+			this.configureFilter();
+		}
 	}
 
 	public void initGPS() {
@@ -1140,24 +1408,26 @@ public class Navigator {
 			this.set_pos(this.cwp);
 		}
 		while(this.get_GPS_timestamp() == 0) {
-			Log.i(TAG, "Waiting for GPS-fix");
+			log.i(TAG, "Waiting for GPS-fix");
 			try {
-				Thread.sleep(1000);
+				this.clock.sleep(1000);
 			} catch (InterruptedException e) {					
-				Log.e(TAG, "Error while waiting for GPS fix");
+				log.e(TAG, "Error while waiting for GPS fix");
 			}
+			this.drainSamples();
 		}					
 		this.lastVelPos = this.pos();
 	}
 
 	public void initCompass() {
 		while(this.get_compass_timestamp() == 0) {
-			Log.i(TAG, "Waiting for compass reading");
+			log.i(TAG, "Waiting for compass reading");
 			try {
-				Thread.sleep(1000);
+				this.clock.sleep(1000);
 			} catch (InterruptedException e) {					
-				Log.e(TAG, "Error while waiting for GPS fix");
+				log.e(TAG, "Error while waiting for GPS fix");
 			}
+			this.drainSamples();
 		}
 		this.set_phi(0.0);
 	}
@@ -1208,23 +1478,20 @@ public class Navigator {
 	public void initTime() {
 		// write starting time to logs
 		Calendar calendar = new GregorianCalendar(); // Get starting time
-		// nav time is time from start
-		this.lastTime = 0;
-		// The starting time is saved
-		this.timeBefore = System.currentTimeMillis();
+		this.dt = this.loopPeriod;
+		// ticks of the navigation loop start now, in the nav time the
+		// measurements are time-stamped in since the navigator was created
+		this.scheduler = new LoopScheduler(this.clock,
+				Math.round(this.loopPeriod * 1e9), this.overrunPolicy);
+		this.scheduler.start();
+		this.tickOrigin = this.toNavTime(this.scheduler.getStartNanos());
+		this.lastTime = this.tickOrigin;
+		this.predictionTime = this.tickOrigin;
+		this.reportedOverruns = 0;
 
 		// Log starting-time
-		String timeString = String.format(
-				"#Start time: %1$ty-%1$tm-%1$td %1$tH:%1$tM:%1$tS:%1$tL\n",
-				calendar);
-		this.log("nav", timeString);
-		this.log("state", timeString);
-		this.log("meas", timeString);
-		this.log("state",
-				"Time\tX\tY\tV\tHeading\tTurn-rate\tX_p\tY_p\tV_p\tHeading_p\tTurn-rate_p\n");
-		this.log(
-				"meas",
-				"Time\tX_GPS\tY_GPS\tV_GPS\tHeading_GPS\tHeading_compass\tTurn-rate_rudder\tV_load\n");
+		prj.logRecord(TelemetryWriter.START, calendar.getTimeInMillis(),
+				new double[0]);
 
 	}
 
@@ -1248,13 +1515,13 @@ public class Navigator {
 		//else wait for manual wp while in operation 
 		
 		// read way-points from file
-		if (Navigator.getAutopilot()) {
+		if (this.getAutopilot()) {
 			this.setWaypoints();
 		} else {
-			while (this.wp.size() == 0 && NavigatorService.operative) {
+			while (this.route.size() == 0 && this.operative) {
 				// Waiting for waypoints
 				try {
-					Thread.sleep(1000);
+					this.clock.sleep(1000);
 				} catch (InterruptedException e) {
 				}
 			}
@@ -1265,29 +1532,26 @@ public class Navigator {
 	 * When a route is set, the pure-pursuit waypoints are initialized and the
 	 * Kalman filter matrices are calculated
 	 */
-	void initNavigation() {
+	public void initNavigation() {
 		// If auto-pilot, resume navigation from last visited waypoint
 		// Checks if resume is < than length of waypoint list
-		if (this.resumeFromWp > 0 && Navigator.getAutopilot()
-				&& this.resumeFromWp < this.wp.size() - 1) {
-			this.wp.add(this.resumeFromWp, this.pos());
-			this.wpIter = this.wp.iterator();
-
+		if (this.resumeFromWp > 0 && this.getAutopilot()
+				&& this.resumeFromWp < this.route.size() - 1) {
+			this.route.insert(this.resumeFromWp, this.pos()[0], this.pos()[1]);
 			// step up to resume position
-			for (int i = 0; i < this.resumeFromWp; i++)
-				this.wpIter.next();
+			this.route.seek(this.resumeFromWp);
 		} else {
-			this.wpIter = this.wp.iterator();
+			this.route.seek(0);
 		}
 
 		this.lwp = this.pos();// set lwp to current pos
-		this.cwp = this.wpIter.next(); // set cwp to next wp
+		this.cwp = this.route.next(); // set cwp to next wp
 
 		// Navigation - calculate wanted turn rate
 		double turn_rate = this.getTurnrate();
 
 		// update velocity and heading measurements from load and rudder
-		this.updateEncoders((double) Navigator.getMotorLoad(), turn_rate);
+		this.updateEncoders((double) this.getMotorLoad(), turn_rate);
 
 		// initialize state-vector
 		DenseMatrix64F priorX = new DenseMatrix64F(this.stateDOF, 1, true,
@@ -1308,19 +1572,57 @@ public class Navigator {
 
 		kf.configure(F, Q, H);
 		kf.setState(priorX, priorP);
+		if (this.sequentialUpdateSwitch)
+			kf.setUpdateStrategy(UpdateStrategy.SEQUENTIAL);
+		else
+			kf.setUpdateStrategy(UpdateStrategy.BATCH);
 
 		this.R = this.createR();
+
+		this.history = new StateHistory(this.historySize, this.stateDOF,
+				this.measDOF);
+		this.replayX = new DenseMatrix64F(this.stateDOF, 1);
+		this.replayP = new DenseMatrix64F(this.stateDOF, this.stateDOF);
+		this.replayZ = new DenseMatrix64F(this.measDOF, 1);
+		this.stepF = new DenseMatrix64F(this.stateDOF, this.stateDOF);
+		this.stepQ = new DenseMatrix64F(this.stateDOF, this.stateDOF);
+		this.measH = this.createH();
+		this.measZ = new DenseMatrix64F(this.measDOF, 1);
+		Arrays.fill(this.tickMeas, false);
+		// measurements from before navigation started are not late ones,
+		// later ones are fused in the first iteration
+		for (int i = 0; i < this.fusedTimestamps.length; i++)
+			this.fusedTimestamps[i] = min(this.timestamps[i], this.lastTime);
 	}
 
 	public void finish() {
-		Navigator.stopMotor();
+		this.stopMotor();
+		if (this.kf instanceof DenseNavFilter) {
+			DenseNavFilter dkf = (DenseNavFilter) this.kf;
+			log.i(TAG, String.format(
+					"Measurement model cache hits: %d, misses: %d",
+					dkf.getCacheHits(), dkf.getCacheMisses()));
+		}
+		if (this.historyTicks > 0)
+			log.i(TAG, String.format(
+					"Late measurements fused: %d, too old: %d, replacing earlier: %d, ticks replayed: %d, history %.1f us per tick",
+					this.lateFused, this.lateTooOld, this.lateReplaced,
+					this.replayedTicks,
+					this.getHistoryNanosPerTick() / 1000.0));
 		prj.close();
+		if (this.prj instanceof AsyncNavStorage) {
+			AsyncNavStorage async = (AsyncNavStorage) this.prj;
+			log.i(TAG, String.format(
+					"Log records dropped: %d, high-water mark: %d of %d",
+					async.getDropped(), async.getHighWaterMark(),
+					async.getCapacity()));
+		}
 		// Finished
-		Log.i(TAG, "Finished waypoint navigation!");
+		log.i(TAG, "Finished waypoint navigation!");
 	}
 
 	public void clearWaypointList() {
-		this.wp = new ArrayList<double[]>();
+		this.route = new Route();
 	}
 	
 		
@@ -1331,30 +1633,44 @@ public class Navigator {
 	public long get_compass_timestamp() {
 		return this.timestamps[4];
 	}
-		
-	public Bundle getStatus() {
-		Bundle data = new Bundle();
-		double[] posWgs84 = this.getPosWGS84();
-		data.putDouble("lon",posWgs84[0]);
-		data.putDouble("lat",posWgs84[1]);
-		data.putDouble("speed", this.V());
-		data.putDouble("bearing",this.phi());
-		data.putDouble("turnrate", this.turn_rate());
-		data.putDouble("progress", this.progressEstimate());
-		data.putDouble("accurracy",this.getGpsAccuracy());		
-		return data;				
+
+	// Mean CPU time per tick of saving and replaying the filter history [ns]
+	public double getHistoryNanosPerTick() {
+		return this.historyTicks > 0 ? this.historyNanos
+				/ (double) this.historyTicks : 0;
 	}
-	
+
+	// Late measurements fused at their time-stamp
+	public long getLateFused() {
+		return this.lateFused;
+	}
+
+	// Scheduler of the navigation loop, with its jitter statistics
+	public LoopScheduler getScheduler() {
+		return this.scheduler;
+	}
+
+	// Time in milliseconds since the navigator was created, the time base
+	// of the measurement time-stamps and of the loop ticks
+	public long getNavTime() {
+		return this.toNavTime(this.clock.nanoTime());
+	}
+
+	/**
+	 * Nav time of a time on the monotonic clock, e.g. the acquisition time
+	 * of a sensor reading from SensorTime
+	 */
+	public long toNavTime(long nanos) {
+		return (nanos - this.startNanos) / 1000000;
+	}
+		
 	public void addWaypointWGS84(double lon, double lat) {
-		if (Navigator.getAutopilot())
-			Navigator.setAutopilot(false);
-		WGS84Position wgsPos = new WGS84Position();
-		wgsPos.setPos(lon, lat);
-		SWEREF99Position rtPos = new SWEREF99Position(wgsPos,
-				SWEREF99Position.SWEREFProjection.sweref_99_tm);
-		double[] projP = { (double) rtPos.getLongitude(),
-				(double) rtPos.getLatitude() };
-		this.wp.add(projP);
+		if (this.getAutopilot())
+			this.setAutopilot(false);
+		double[] grid = SWEREF99Position.getGaussKreuger(
+				SWEREF99Position.SWEREFProjection.sweref_99_tm)
+				.geodetic_to_grid(lat, lon);
+		this.route.add(grid[1], grid[0]);
 		}
 
 	// Return position in WGS84 lon,lat
@@ -1375,50 +1691,84 @@ public class Navigator {
 	public double getGpsAccuracy() {
 		return this.gpsAccuracy;
 	}
+
+	// waypoints of the current leg in the navigation frame
+	public double[] getLWP() {
+		return this.lwp;
+	}
+
+	public double[] getCWP() {
+		return this.cwp;
+	}
+
+	// true position of the simulated boat, null if not simulating
+	public double[] getSimPos() {
+		if (this.sim_state == null)
+			return null;
+		return new double[] { sim_state.get(0), sim_state.get(1) };
+	}
+
+	// time-step in seconds
+	public double getDt() {
+		return this.dt;
+	}
+
+	// seed for the simulated measurement noise
+	public void setSeed(long seed) {
+		this.generator = new Random(seed);
+	}
 	
-	public static void setRudderAngle(int angle) {
+	public void setRudderAngle(int angle) {
 		rudderAngle=angle;
-		Log.d(TAG,String.format("Setting rudder to %d", angle));
+		log.d(TAG,String.format("Setting rudder to %d", angle));
 		
 	}
 	
-	public static void setAutopilot(boolean status) {
-		Navigator.autoPilot = status;
+	public void setAutopilot(boolean status) {
+		this.autoPilot = status;
 	}
 	
-	public static boolean getAutopilot() {
-		return Navigator.autoPilot;
+	public boolean getAutopilot() {
+		return this.autoPilot;
 	}
 
-	public static int getRudderAngle() {
+	public int getRudderAngle() {
 		return rudderAngle;
 	}
 
-	public static void startMotor() {
+	public void startMotor() {
 		active = true;
-		Log.d(TAG,"Started motor");
+		log.d(TAG,"Started motor");
 	}
 
-	public static void stopMotor() {
+	public void stopMotor() {
 		active=false;
-		Log.d(TAG,"Stopped motor");
+		log.d(TAG,"Stopped motor");
 	}
 	
 	// set motor load
-	public static void setMotorLoad(int loadPercentage) {
+	public void setMotorLoad(int loadPercentage) {
 		load=loadPercentage;
 	}
 	
-	public static int getMotorLoad() {
+	public int getMotorLoad() {
 		return load;
 	}
 	
-	public static boolean getActive() {
+	public boolean getActive() {
 		return active;
 	}
 
-	public static void setActive(boolean is_active) {
+	public void setActive(boolean is_active) {
 		active = is_active;
 	}
 
+	public boolean isOperative() {
+		return operative;
+	}
+
+	public void setOperative(boolean is_operative) {
+		operative = is_operative;
+	}
+
 }
@@ -10,18 +10,18 @@ import ioio.lib.util.IOIOLooper;
 import ioio.lib.util.android.IOIOService;
 
 import java.util.Timer;
+import org.sonardrone.Project;
 import org.sonardrone.R;
 import org.sonardrone.SonardroneActivity;
+import org.sonardrone.proj.GaussKreuger;
+import org.sonardrone.proj.LocalProjection;
 import org.sonardrone.proj.positions.SWEREF99Position;
-import org.sonardrone.proj.positions.WGS84Position;
 
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.location.Location;
@@ -30,7 +30,6 @@ import android.location.LocationManager;
 import android.location.LocationProvider;
 import android.os.Binder;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.LocalBroadcastManager;
@@ -56,7 +55,6 @@ public class NavigatorService extends IOIOService {
 
 
 	// global flag showing whether navigator is polling for commands or waypoints
-	public static volatile boolean operative=false;
 
 	// Android sensors, managers and listeners
 	private LocationManager lm;
@@ -70,9 +68,21 @@ public class NavigatorService extends IOIOService {
 	private static long minTimeMillis = 100;
 	private static long minDistanceMeters = 0;
 	private static float minAccuracyMeters = 100;
-
-	// Magnetometer update settings
-	private final int ORIENTATION_UPDATE_PERIOD = 500;
+	// Do not round projected fixes to mm, see GaussKreuger.setFullPrecision
+	private static boolean fullPrecisionSwitch = true;
+	// Project fixes with a local approximation around an anchor fix, read
+	// from settings.rf by readLocationSettings
+	private boolean localProjectionSwitch = false;
+	// Re-anchor beyond this distance from the anchor [m]
+	private double localProjectionRadius = 2000;
+	// Largest accepted error of the local projection [m]
+	private double localProjectionTolerance = 0.001;
+	// Fixes between checks against the exact projection
+	private int localProjectionCheckInterval = 100;
+
+	// Magnetometer update settings, headings are published by the
+	// listener at most once a period [ms]
+	private final int ORIENTATION_UPDATE_PERIOD = 100;
 	private final int ORIENTATION_STARTUP_DELAY = 2000;
 	private int lastStatus = 0;
 
@@ -80,8 +90,6 @@ public class NavigatorService extends IOIOService {
 	private Timer orientationBroadcaster = new Timer();
 
 
-	// Broadcaster for orientation updating
-	private Handler orientationUpdatedBroadcastHandler = new Handler();
 //	private class OrientationUpdatedBroadcaster extends TimerTask {
 //		public void run() {
 //			Intent intent = new Intent("ORIENTATION_UPDATED");
@@ -91,17 +99,6 @@ public class NavigatorService extends IOIOService {
 //		}
 //	}
 	
-	private Runnable updateOrientationRunnable = new Runnable() {
-		@Override
-		public void run() {
-			Intent intent = new Intent("ORIENTATION_UPDATED");
-		    intent.putExtra("heading", NavigatorService.this.get_heading());
-		    intent.putExtra("timestamp", NavigatorService.this.get_heading_timestamp());
-		    LocalBroadcastManager.getInstance(NavigatorService.this).sendBroadcast(intent);
-		    orientationUpdatedBroadcastHandler.postDelayed(this, ORIENTATION_UPDATE_PERIOD);
-		}
-	};
-	
 	public double get_heading() {
 		return this.orientationListener.get_heading();
 	}
@@ -110,28 +107,25 @@ public class NavigatorService extends IOIOService {
 		return this.orientationListener.get_heading_timestamp();
 	}
 
-	// Broadcast receiver to toggle operation
-	private BroadcastReceiver CommandReceiver = new BroadcastReceiver() {
+	// Command subscriber to toggle operation
+	private SensorBus.Subscriber<SensorBus.Command> commandSubscriber = new SensorBus.Subscriber<SensorBus.Command>() {
 	  @SuppressWarnings("incomplete-switch")
 	  @Override
-	  public void onReceive(Context context, Intent intent) {
-	    // Get extra data included in the Intent
-	    String command = intent.getStringExtra("command");
-	    Log.d("CommandReceiver", "command: " + command);
-	    String cmd = command.split(";")[0];
+	  public void onEvent(SensorBus.Command command) {
+	    Log.d("CommandSubscriber", "command: " + command.command);
 	    
-	    switch (COMMAND.valueOf(cmd)) {
+	    switch (command.command) {
 	    case SET_RUDDER:
-	    	Navigator.setRudderAngle(intent.getIntExtra("value", 0));
+	    	getNavigator().setRudderAngle((int) command.value);
 	    	break;
 	    case SET_LOAD:
-	    	Navigator.setMotorLoad(intent.getIntExtra("value", 0));
+	    	getNavigator().setMotorLoad((int) command.value);
 	    	break;
 	    case ACTIVATE:
-	    	Navigator.setActive(true);
+	    	getNavigator().setActive(true);
 	    	break;
 	    case DEACTIVATE:
-	    	Navigator.setActive(false);
+	    	getNavigator().setActive(false);
 	    	break;
 	    case OPERATE:
 	    	NavigatorService.this.operate();
@@ -189,19 +183,20 @@ public class NavigatorService extends IOIOService {
 			@Override
 			public void loop() throws ConnectionLostException,
 					InterruptedException {
-				if (Navigator.getActive()) {
-					int pw=angle2pw(Navigator.getRudderAngle());
+				Navigator nav = getNavigator();
+				if (nav.getActive()) {
+					int pw=angle2pw(nav.getRudderAngle());
 					if (pw < 1750) {
-						Navigator.setRudderAngle(Navigator.getRudderAngle() + 5);
-						pw = angle2pw(Navigator.getRudderAngle());
+						nav.setRudderAngle(nav.getRudderAngle() + 5);
+						pw = angle2pw(nav.getRudderAngle());
 					} else {
-						Navigator.setRudderAngle(-45);
-						pw = angle2pw(Navigator.getRudderAngle());
+						nav.setRudderAngle(-45);
+						pw = angle2pw(nav.getRudderAngle());
 					}
 					Log.d(TAG,String.format("Rudder pulse width: %d", pw));
 					servo_.setPulseWidth(pw);
-//				load_.setPulseWidth(angle2pw(Navigator.getMotorLoad()));
-				if(Navigator.getMotorLoad()>0)
+//				load_.setPulseWidth(angle2pw(nav.getMotorLoad()));
+				if(nav.getMotorLoad()>0)
 					led_.write(true);
 				else
 					led_.write(false);	
@@ -220,31 +215,68 @@ public class NavigatorService extends IOIOService {
 		mNM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 		initLocationListener();
 		initOrientationListener();		
-		LocalBroadcastManager.getInstance(this).registerReceiver(CommandReceiver,
-				new IntentFilter("COMMAND"));
+		// commands are run on the publishing thread, as a synchronous broadcast
+		SensorBus.getInstance().command.subscribe(this.commandSubscriber, null);
 		this.navThread = new NavThread("navigator",this);
 	}
 	
 	public void initOrientationListener() {
-		this.orientationListener = new OrientationListener();
+		this.orientationListener = new OrientationListener(ORIENTATION_UPDATE_PERIOD);
 	    mSensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
 	    accelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
 	    magnetometer = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-	    mSensorManager.registerListener(this.orientationListener, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
-	    mSensorManager.registerListener(this.orientationListener, magnetometer, SensorManager.SENSOR_DELAY_NORMAL);
-	    this.orientationUpdatedBroadcastHandler.postDelayed(updateOrientationRunnable,ORIENTATION_UPDATE_PERIOD);
+	    // filtered at game rate, published decimated by the listener
+	    mSensorManager.registerListener(this.orientationListener, accelerometer, SensorManager.SENSOR_DELAY_GAME);
+	    mSensorManager.registerListener(this.orientationListener, magnetometer, SensorManager.SENSOR_DELAY_GAME);
 	}
 	/** Called when the service is first created. */
 	private void initLocationListener() {
 
 		// ---use the LocationManager class to obtain GPS locations---
 		lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+		this.readLocationSettings(new Project(Navigator.projectName));
 		locationListener = new MyLocationListener();
 		lm.requestLocationUpdates(LocationManager.GPS_PROVIDER, minTimeMillis,
 				minDistanceMeters, locationListener);
 		Log.d(TAG, "started location manager");
 	}
 
+	// optional settings, missing in resource files from older versions,
+	// which keep the exact projection
+	private void readLocationSettings(NavStorage settings) {
+		if (settings.containsKey("localProjectionSwitch"))
+			this.localProjectionSwitch = settings
+					.getParameterAsBoolean("localProjectionSwitch");
+		if (settings.containsKey("localProjectionRadius")) {
+			double radius = settings
+					.getParameterAsDouble("localProjectionRadius");
+			if (radius > 0)
+				this.localProjectionRadius = radius;
+			else
+				Log.e(TAG, "localProjectionRadius must be positive, using "
+						+ this.localProjectionRadius);
+		}
+		if (settings.containsKey("localProjectionTolerance")) {
+			double tolerance = settings
+					.getParameterAsDouble("localProjectionTolerance");
+			if (tolerance > 0)
+				this.localProjectionTolerance = tolerance;
+			else
+				Log.e(TAG, "localProjectionTolerance must be positive, using "
+						+ this.localProjectionTolerance);
+		}
+		if (settings.containsKey("localProjectionCheckInterval")) {
+			int interval = settings
+					.getParameterAsInt("localProjectionCheckInterval");
+			if (interval > 0)
+				this.localProjectionCheckInterval = interval;
+			else
+				Log.e(TAG, "localProjectionCheckInterval must be positive, "
+						+ "using " + this.localProjectionCheckInterval);
+		}
+		Log.d(TAG, "localProjectionSwitch=" + this.localProjectionSwitch);
+	}
+
 	private void shutdownLocationListener() {
 		lm.removeUpdates(locationListener);
 	}
@@ -252,20 +284,37 @@ public class NavigatorService extends IOIOService {
 	private class MyLocationListener implements LocationListener {
 		// last fix
 		private double[] pos = { 0, 0 };
-		private long timestamp = 0;
+		private long timestamp = 0; // acquisition, see SensorTime [ns]
 		private float accuracy = 100;
-
-		private double[] project(String projName, double[] point) {
+		// published record, reused for every fix
+		private final SensorBus.Location fix = new SensorBus.Location();
+
+		// projection of the fixes, constants are computed once
+		private final GaussKreuger projection = SWEREF99Position
+				.getGaussKreuger(SWEREF99Position.SWEREFProjection.sweref_99_tm,
+						fullPrecisionSwitch);
+		private final LocalProjection localProjection = new LocalProjection(
+				this.projection, localProjectionRadius,
+				localProjectionTolerance, localProjectionCheckInterval);
+		private long anchors = 0;
+		private final double[] grid = new double[2];
+
+		private void project(double lon, double lat, double[] point) {
 			/*
-			 * Project lat-lon to given projection
+			 * Project lat-lon to SWEREF99 TM east, north
 			 */
-			WGS84Position wgsPos = new WGS84Position();
-			wgsPos.setPos(point[0], point[1]);
-			SWEREF99Position rtPos = new SWEREF99Position(wgsPos,
-					SWEREF99Position.SWEREFProjection.sweref_99_tm);
-			double[] projP = { (double) rtPos.getLongitude(),
-					(double) rtPos.getLatitude() };
-			return projP;
+			if (localProjectionSwitch) {
+				this.localProjection.geodetic_to_grid(lat, lon, this.grid);
+				if (this.localProjection.getAnchors() != this.anchors) {
+					this.anchors = this.localProjection.getAnchors();
+					Log.d(TAG, String.format(
+							"Local projection anchored at fix, max error %.4f m",
+							this.localProjection.getMaxError()));
+				}
+			} else
+				this.projection.geodetic_to_grid(lat, lon, this.grid);
+			point[0] = this.grid[1];
+			point[1] = this.grid[0];
 		}
 
 		public void onLocationChanged(Location loc) {
@@ -275,15 +324,11 @@ public class NavigatorService extends IOIOService {
 							&& loc.getAccuracy() <= minAccuracyMeters) {
 						if (true) {
 							// Log.d(TAG, "Position updated");
-							double[] geo_pos = { loc.getLongitude(),
-									loc.getLatitude() };
-							double[] proj_pos = this.project("EPSG:32633", geo_pos);
-
-							this.pos[0] = proj_pos[0];
-							this.pos[1] = proj_pos[1];
-							this.timestamp = System.currentTimeMillis();
+							this.project(loc.getLongitude(), loc.getLatitude(),
+									this.pos);
+							this.timestamp = SensorTime.ofLocation(loc);
 							this.accuracy = loc.getAccuracy();
-							sendLocationUpdatedBroadcast();
+							publishLocation();
 						}
 					}
 					else {
@@ -295,12 +340,13 @@ public class NavigatorService extends IOIOService {
 			}
 		}
 		
-		private void sendLocationUpdatedBroadcast(){
-			Intent intent = new Intent("LOCATION_UPDATED");
-		    intent.putExtra("pos", this.pos);
-		    intent.putExtra("accuracy", this.accuracy);
-		    intent.putExtra("timestamp", this.timestamp);
-		    LocalBroadcastManager.getInstance(NavigatorService.this).sendBroadcastSync(intent);
+		// subscribers without executor, e.g. NavThread, run on the GPS thread
+		private void publishLocation(){
+			this.fix.x = this.pos[0];
+			this.fix.y = this.pos[1];
+			this.fix.accuracy = this.accuracy;
+			this.fix.time = this.timestamp;
+			SensorBus.getInstance().location.publish(this.fix);
 		}
 				
 		public void onProviderDisabled(String provider) {
@@ -373,13 +419,17 @@ public class NavigatorService extends IOIOService {
 	    intent.putExtra("STATE", state);
 	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
 	}
+	public Navigator getNavigator() {
+		return this.navThread.nav;
+	}
+
 	public void operate() {
-		NavigatorService.operative=true;
+		this.navThread.nav.setOperative(true);
 		this.navThread.run();
 	}
 	
 	public void shutdown(){
-		NavigatorService.operative=false;
+		this.navThread.nav.setOperative(false);
 	}
 		
 	@Override
@@ -388,10 +438,9 @@ public class NavigatorService extends IOIOService {
 		// Cancel the persistent notification.
 		// Tell the user we stopped.
 		shutdownLocationListener();
-		orientationUpdatedBroadcastHandler.removeCallbacks(updateOrientationRunnable);
 	    mSensorManager.unregisterListener(this.orientationListener);
 		Toast.makeText(this, "Navigator stopped!", Toast.LENGTH_SHORT).show();
-		LocalBroadcastManager.getInstance(this).unregisterReceiver(CommandReceiver);		
+		SensorBus.getInstance().command.unsubscribe(this.commandSubscriber);
 		super.onDestroy();
 		this.sendServiceStateBroadcast(false);
 		mNM.cancel(0);
@@ -419,23 +468,18 @@ public class NavigatorService extends IOIOService {
 	};
 	
 	private void broadcastNavCommand(String command){
-		Intent intent = new Intent("COMMAND");
-	    intent.putExtra("command", command);
-	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
+		this.broadcastNavCommandDouble(command, 0);
 	}
 	
 	public void broadcastNavCommandDouble(String command, double value) {
-		Intent intent = new Intent("COMMAND");
-	    intent.putExtra("command", command);
-	    intent.putExtra("value", value);
-	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
+		SensorBus.Command event = new SensorBus.Command();
+		event.command = COMMAND.valueOf(command);
+		event.value = value;
+		SensorBus.getInstance().command.publish(event);
 	}
 	
 	public void broadcastNavCommandBoolean(String command, boolean value) {
-		Intent intent = new Intent("COMMAND");
-	    intent.putExtra("command", command);
-	    intent.putExtra("value", value);
-	    LocalBroadcastManager.getInstance(this).sendBroadcastSync(intent);
+		this.broadcastNavCommandDouble(command, value ? 1 : 0);
 	}
 	
 	public void broadcastNavCommandPosArray(String command, double[] lon, double[] lat) {
@@ -4,43 +4,108 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
+/**
+ * Compass heading from the accelerometer and the magnetometer.
+ *
+ * Readings are copied to buffers of the listener, as the framework reuses
+ * the arrays of the events. The azimuth is low-pass filtered as a point on
+ * the unit circle, by its sine and cosine, so that the filter does not jump
+ * where the heading wraps at +-pi. The filter weight follows from the time
+ * between sensor events, so the time constant is the same at any sensor
+ * rate. The filtered heading is published on the SensorBus at most once a
+ * publish period, time-stamped with the acquisition of its latest reading.
+ */
 public class OrientationListener implements SensorEventListener {
-	private double azimut = 0.0;  // View to draw a compass
-	private double ALPHA = 0.9;
-	private long timestamp = 0;  
+	// time constant of the low-pass filter [s]
+	private static final double TIME_CONSTANT = 1.0;
+	// longest gap between events that is filtered, longer ones restart it [s]
+	private static final double MAX_GAP = 2.0;
+
+	private final long publishPeriod; // [ns]
+
+	// copies of the latest readings
+	private final float[] gravity = new float[3];
+	private final float[] geomagnetic = new float[3];
+	private boolean hasGravity = false;
+	private boolean hasGeomagnetic = false;
+	private final float[] rotation = new float[9];
+
+	// filtered heading on the unit circle
+	private double sinAzimut = 0;
+	private double cosAzimut = 1;
+	private long eventTime = 0; // sensor time of the last filtered event [ns]
+	private boolean filtering = false;
+
+	private volatile double azimut = 0.0;
+	private volatile long timestamp = 0; // acquisition, see SensorTime [ns]
+	private long published = 0;
+	// published record, reused for every heading
+	private final SensorBus.Heading heading = new SensorBus.Heading();
+
+	/**
+	 * @param publishPeriod
+	 *            least time between published headings [ms]
+	 */
+	public OrientationListener(long publishPeriod) {
+		this.publishPeriod = publishPeriod * 1000000L;
+	}
+
 	public double get_heading() {
 		return azimut;
 	}
-	
+
 	public long get_heading_timestamp() {
 		return this.timestamp;
 	}
-	
-	void lowPassFilter(double rawValue) {
-		this.azimut = this.ALPHA * this.azimut +
-				(1.0 - this.ALPHA) * rawValue;
+
+	// first order low-pass of sin and cos, dt is the time since the last
+	// filtered azimuth [s]
+	void lowPassFilter(double rawValue, double dt) {
+		double sin = Math.sin(rawValue);
+		double cos = Math.cos(rawValue);
+		if (!this.filtering || dt > MAX_GAP) {
+			this.sinAzimut = sin;
+			this.cosAzimut = cos;
+			this.filtering = true;
+		} else if (dt > 0) {
+			double alpha = Math.exp(-dt / TIME_CONSTANT);
+			this.sinAzimut = alpha * this.sinAzimut + (1.0 - alpha) * sin;
+			this.cosAzimut = alpha * this.cosAzimut + (1.0 - alpha) * cos;
 		}
-	  	 	 	 
+		this.azimut = Math.atan2(this.sinAzimut, this.cosAzimut);
+	}
+
 	public void onAccuracyChanged(Sensor sensor, int accuracy) {  }
-	  
-	float[] mGravity;
-	float[] mGeomagnetic;
+
 	public void onSensorChanged(SensorEvent event) {
-		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER)
-			mGravity = event.values;
-		if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD)
-			mGeomagnetic = event.values;
-		if (mGravity != null && mGeomagnetic != null) {
-			float R[] = new float[9];
-			float I[] = new float[9];
-			boolean success = SensorManager.getRotationMatrix(R, I, mGravity, mGeomagnetic);
-			if (success) {
-				float orientation[] = new float[3];
-				SensorManager.getOrientation(R, orientation);
-				// orientation contains: azimut, pitch and roll
-				lowPassFilter(orientation[0]);
-				this.timestamp = System.currentTimeMillis();
-			}
+		int type = event.sensor.getType();
+		if (type == Sensor.TYPE_ACCELEROMETER) {
+			System.arraycopy(event.values, 0, this.gravity, 0, 3);
+			this.hasGravity = true;
+		} else if (type == Sensor.TYPE_MAGNETIC_FIELD) {
+			System.arraycopy(event.values, 0, this.geomagnetic, 0, 3);
+			this.hasGeomagnetic = true;
+		} else
+			return;
+		if (!this.hasGravity || !this.hasGeomagnetic)
+			return;
+		// the inclination matrix is not needed
+		if (!SensorManager.getRotationMatrix(this.rotation, null,
+				this.gravity, this.geomagnetic))
+			return;
+		// azimuth as given by SensorManager.getOrientation
+		double rawAzimut = Math.atan2(this.rotation[1], this.rotation[4]);
+		double dt = (event.timestamp - this.eventTime) * 1e-9;
+		this.eventTime = event.timestamp;
+		lowPassFilter(rawAzimut, dt);
+
+		long time = SensorTime.ofSensorEvent(event.timestamp);
+		this.timestamp = time;
+		if (time - this.published >= this.publishPeriod) {
+			this.published = time;
+			this.heading.heading = this.azimut;
+			this.heading.time = time;
+			SensorBus.getInstance().heading.publish(this.heading);
 		}
 	}
-}	
+}
@@ -0,0 +1,169 @@
+package org.sonardrone.navigator;
+
+/**
+ * Pure pursuit path tracking following "Path Tracking for unmanned vehicle
+ * navigation - implementation and adaptation of the pure pursuit algorithm"
+ * by Defense Research and Development Canada.
+ *
+ * The geometry of a tick is worked out on primitive fields, with the
+ * heading trigonometry computed once, so that the controller does not
+ * allocate while navigating. Heading phi is in radians, positive clockwise
+ * from the y-axis of the navigation frame. In the body-frame the vehicle is
+ * at origo, heading along the y-axis.
+ */
+public class PurePursuit {
+	private double lookAhead = 10; // look-ahead distance
+	private double minLookAhead = 2; // minimum look-ahead distance
+	private double minTurnRadius = 10; // minimum allowed turn radius
+
+	// heading trigonometry and position of the current tick
+	private double cosPhi;
+	private double sinPhi;
+	private double posX;
+	private double posY;
+
+	// goal point and heading direction in the navigation frame
+	private boolean geometry = false;
+	private double goalX;
+	private double goalY;
+	private double dirX;
+	private double dirY;
+
+	public void configure(double lookAhead, double minLookAhead,
+			double minTurnRadius) {
+		this.lookAhead = lookAhead;
+		this.minLookAhead = minLookAhead;
+		this.minTurnRadius = minTurnRadius;
+	}
+
+	/**
+	 * Turn-rate to follow the path from lwp to cwp, positive clockwise
+	 *
+	 * @param x
+	 *            , y position in the navigation frame
+	 * @param phi
+	 *            heading [rad]
+	 * @param V
+	 *            speed [m/s]
+	 */
+	public double turnRate(double x, double y, double phi, double V,
+			double[] lwp, double[] cwp) {
+		this.posX = x;
+		this.posY = y;
+		this.cosPhi = Math.cos(phi);
+		this.sinPhi = Math.sin(phi);
+		this.geometry = false;
+
+		// Transform waypoints to body-frame, the vehicle is at origo
+		double lx = this.bodyX(lwp[0], lwp[1]);
+		double ly = this.bodyY(lwp[0], lwp[1]);
+		double cx = this.bodyX(cwp[0], cwp[1]);
+		double cy = this.bodyY(cwp[0], cwp[1]);
+
+		// angle to cwp in body-frame, positive in counter-clockwise direction
+		double targetAngle = Math.atan2(cy, cx) - Math.PI / 2.0;
+		// Assure that the smallest angle is given to the target
+		if (targetAngle > Math.PI)
+			targetAngle -= 2 * Math.PI;
+		if (targetAngle < -1 * Math.PI)
+			targetAngle += 2 * Math.PI;
+
+		// if ship is oriented totally wrong direction, the maximum turn-rate
+		// is returned, in clockwise direction
+		if (Math.abs(targetAngle) > 0.5 * Math.PI) {
+			double maxTurnRate = V / this.minTurnRadius;
+			return -1 * maxTurnRate * Math.signum(targetAngle);
+		}
+
+		// vector between waypoints and from lwp to the vehicle
+		double vx = cx - lx;
+		double vy = cy - ly;
+		double wx = -lx;
+		double wy = -ly;
+		double vmag = Math.sqrt(vx * vx + vy * vy);
+
+		// closest point on path
+		double bnorm = (wx * vx + wy * vy) / vmag / vmag;
+		double bx = lx + bnorm * vx;
+		double by = ly + bnorm * vy;
+
+		double Lcwp = Math.sqrt(cx * cx + cy * cy); // distance to next waypoint
+		double Lerr = Math.sqrt(bx * bx + by * by); // distance to waypoint path
+		// look-ahead is adapted to hit next waypoint and to be more stable (by
+		// considering the distance to the path)
+		double Ladapt = Math.max(this.minLookAhead,
+				Math.min(Lerr + this.lookAhead, Lcwp));
+
+		// goal point where the look-ahead circle intersects the path
+		double A = vx * vx + vy * vy;
+		double B = 2 * (vx * lx + vy * ly);
+		double C = lx * lx + ly * ly - Ladapt * Ladapt;
+		double det = B * B - 4 * A * C;
+		if ((A <= 0.0000001) || (det < 0))
+			throw new IllegalStateException(
+					"Look-ahead circle does not reach the path");
+		double t;
+		double gx, gy;
+		if (det == 0) {
+			t = -B / (2 * A);
+			gx = lx + t * vx;
+			gy = ly + t * vy;
+		} else {
+			double root = Math.sqrt(det);
+			t = (-1 * B + root) / (2 * A);
+			gx = lx + t * vx;
+			gy = ly + t * vy;
+			// use the intersection between b and cwp
+			if (!((gx > bx && gx <= cx) || (gx < bx && gx >= cx))) {
+				t = (-1 * B - root) / (2 * A);
+				gx = lx + t * vx;
+				gy = ly + t * vy;
+			}
+		}
+
+		// turn direction is negative if goal is on the left of the ship
+		double turnDirection = Math.signum(gx);
+		double curvature = 2 * Math.abs(gx) / (Ladapt * Ladapt);
+
+		// goal and heading direction in the navigation frame, for logging
+		this.goalX = this.cosPhi * gx + this.sinPhi * gy + this.posX;
+		this.goalY = -this.sinPhi * gx + this.cosPhi * gy + this.posY;
+		this.dirX = this.sinPhi + this.posX;
+		this.dirY = this.cosPhi + this.posY;
+		this.geometry = true;
+
+		// Turn-rate is positive clockwise
+		return curvature * V * turnDirection;
+	}
+
+	// True if the last tick found a goal point on the path
+	public boolean hasGeometry() {
+		return this.geometry;
+	}
+
+	public double getGoalX() {
+		return this.goalX;
+	}
+
+	public double getGoalY() {
+		return this.goalY;
+	}
+
+	// Point one metre ahead of the vehicle
+	public double getDirX() {
+		return this.dirX;
+	}
+
+	public double getDirY() {
+		return this.dirY;
+	}
+
+	// Translates origo to the vehicle and rotates to the body-frame
+	private double bodyX(double x, double y) {
+		return this.cosPhi * (x - this.posX) - this.sinPhi * (y - this.posY);
+	}
+
+	private double bodyY(double x, double y) {
+		return this.sinPhi * (x - this.posX) + this.cosPhi * (y - this.posY);
+	}
+}
@@ -0,0 +1,160 @@
+package org.sonardrone.navigator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Waypoints of a navigation run with an index cursor at the next waypoint.
+ * The waypoints stay packed in Waypoints; the point where an interrupted
+ * run is resumed is kept beside them and mapped into the index range, so
+ * that inserting it does not move the rest of the route. Resuming from an
+ * index is a single assignment of the cursor, and distances along the route
+ * are looked up without walking it.
+ */
+public class Route {
+	private final Waypoints points;
+	// point inserted before waypoint insertIndex, -1 if none
+	private int insertIndex = -1;
+	private double insertX;
+	private double insertY;
+	// index of the next waypoint
+	private int cursor = 0;
+
+	public Route() {
+		this(new Waypoints());
+	}
+
+	public Route(Waypoints points) {
+		this.points = points;
+	}
+
+	public int size() {
+		return this.points.size() + (this.insertIndex >= 0 ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+		return this.size() == 0;
+	}
+
+	public double getX(int i) {
+		if (i == this.insertIndex)
+			return this.insertX;
+		return this.points.getX(this.pointIndex(i));
+	}
+
+	public double getY(int i) {
+		if (i == this.insertIndex)
+			return this.insertY;
+		return this.points.getY(this.pointIndex(i));
+	}
+
+	/**
+	 * Copies waypoint i to p
+	 *
+	 * @return p
+	 */
+	public double[] get(int i, double[] p) {
+		p[0] = this.getX(i);
+		p[1] = this.getY(i);
+		return p;
+	}
+
+	public double[] get(int i) {
+		return this.get(i, new double[2]);
+	}
+
+	/**
+	 * Distance along the route from the first waypoint to waypoint i, from
+	 * the distances kept by Waypoints and the legs to and from the inserted
+	 * point
+	 */
+	public double distance(int i) {
+		int k = this.insertIndex;
+		if (k < 0 || i < k)
+			return this.points.distance(i);
+		double before = 0;
+		if (k > 0)
+			before = this.points.distance(k - 1)
+					+ this.legToInsert(k - 1);
+		if (i == k)
+			return before;
+		// leg from the inserted point, then along the packed waypoints
+		return before + this.legToInsert(k) + this.points.distance(i - 1)
+				- this.points.distance(k);
+	}
+
+	// Length of the route
+	public double length() {
+		int n = this.size();
+		return n > 0 ? this.distance(n - 1) : 0;
+	}
+
+	// distance between the inserted point and point j
+	private double legToInsert(int j) {
+		double dx = this.points.getX(j) - this.insertX;
+		double dy = this.points.getY(j) - this.insertY;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	public void add(double x, double y) {
+		this.points.add(x, y);
+	}
+
+	/**
+	 * Inserts a waypoint before waypoint i. The first insertion is kept
+	 * beside the packed waypoints, further insertions move the following
+	 * waypoints.
+	 */
+	public void insert(int i, double x, double y) {
+		if (i < 0 || i > this.size())
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: "
+					+ this.size());
+		if (this.insertIndex >= 0) {
+			this.points.insert(this.insertIndex, this.insertX, this.insertY);
+			this.insertIndex = -1;
+		}
+		this.insertIndex = i;
+		this.insertX = x;
+		this.insertY = y;
+	}
+
+	public void clear() {
+		this.points.clear();
+		this.insertIndex = -1;
+		this.cursor = 0;
+	}
+
+	/**
+	 * Moves the cursor, the next waypoint will be waypoint i
+	 */
+	public void seek(int i) {
+		if (i < 0 || i > this.size())
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: "
+					+ this.size());
+		this.cursor = i;
+	}
+
+	// Index of the next waypoint
+	public int index() {
+		return this.cursor;
+	}
+
+	public boolean hasNext() {
+		return this.cursor < this.size();
+	}
+
+	/**
+	 * Next waypoint as a new array, the cursor is moved past it
+	 */
+	public double[] next() {
+		if (!this.hasNext())
+			throw new NoSuchElementException();
+		return this.get(this.cursor++);
+	}
+
+	// index in points of waypoint i
+	private int pointIndex(int i) {
+		if (this.insertIndex >= 0 && i > this.insertIndex)
+			return i - 1;
+		return i;
+	}
+}
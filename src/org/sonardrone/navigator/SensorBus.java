@@ -0,0 +1,217 @@
+package org.sonardrone.navigator;
+
+import java.util.concurrent.Executor;
+
+/**
+ * In-process publish/subscribe of typed sensor and command events, used
+ * instead of Intents with string keyed extras for high-rate data.
+ *
+ * Events are small records of primitive fields. A publisher fills its own
+ * record and publishes it; subscribers without an executor receive that
+ * record directly on the publishing thread and must copy what they keep.
+ * Subscribers with an executor, e.g. one posting to the UI thread, are
+ * given their own copy. On the sensor topics a slow executor subscriber
+ * gets the latest event and skips the ones published meanwhile, so
+ * publishing does not allocate or queue up; commands are always delivered
+ * one by one.
+ */
+public class SensorBus {
+	private static final SensorBus instance = new SensorBus();
+
+	/**
+	 * Event record, copied field by field to the records of executor
+	 * subscribers
+	 */
+	public interface Event<E> {
+		// new empty record of the same type
+		public E newRecord();
+		public void copyTo(E target);
+	}
+
+	public interface Subscriber<E> {
+		public void onEvent(E event);
+	}
+
+	// GPS fix projected to the navigation frame
+	public static class Location implements Event<Location> {
+		public double x;
+		public double y;
+		public float accuracy; // [m]
+		public long time; // acquisition, see SensorTime [ns]
+
+		public Location newRecord() {
+			return new Location();
+		}
+
+		public void copyTo(Location target) {
+			target.x = this.x;
+			target.y = this.y;
+			target.accuracy = this.accuracy;
+			target.time = this.time;
+		}
+	}
+
+	// Compass heading
+	public static class Heading implements Event<Heading> {
+		public double heading; // [rad]
+		public long time; // acquisition, see SensorTime [ns]
+
+		public Heading newRecord() {
+			return new Heading();
+		}
+
+		public void copyTo(Heading target) {
+			target.heading = this.heading;
+			target.time = this.time;
+		}
+	}
+
+	// Command to the navigator service, with an optional value
+	public static class Command implements Event<Command> {
+		public COMMAND command;
+		public double value;
+
+		public Command newRecord() {
+			return new Command();
+		}
+
+		public void copyTo(Command target) {
+			target.command = this.command;
+			target.value = this.value;
+		}
+	}
+
+	public final Topic<Location> location = new Topic<Location>(
+			new Location(), true);
+	public final Topic<Heading> heading = new Topic<Heading>(new Heading(),
+			true);
+	public final Topic<Command> command = new Topic<Command>(new Command(),
+			false);
+
+	public static SensorBus getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Events of one type and their subscribers. Subscribing is rare and
+	 * copies the subscriber array, publishing reads it without locking.
+	 */
+	public static class Topic<E extends Event<E>> {
+		// record the copies of executor subscribers are made from
+		private final E prototype;
+		private final boolean conflate;
+		private volatile Subscription<?>[] subscriptions = new Subscription<?>[0];
+
+		Topic(E prototype, boolean conflate) {
+			this.prototype = prototype;
+			this.conflate = conflate;
+		}
+
+		/**
+		 * Adds a subscriber
+		 *
+		 * @param executor
+		 *            runs the deliveries, or null to deliver on the
+		 *            publishing thread
+		 */
+		public synchronized void subscribe(Subscriber<E> subscriber,
+				Executor executor) {
+			Subscription<?>[] subs = this.subscriptions;
+			Subscription<?>[] added = new Subscription<?>[subs.length + 1];
+			System.arraycopy(subs, 0, added, 0, subs.length);
+			added[subs.length] = new Subscription<E>(this, subscriber, executor);
+			this.subscriptions = added;
+		}
+
+		public synchronized void unsubscribe(Subscriber<E> subscriber) {
+			Subscription<?>[] subs = this.subscriptions;
+			for (int i = 0; i < subs.length; i++) {
+				if (subs[i].subscriber == subscriber) {
+					Subscription<?>[] removed = new Subscription<?>[subs.length - 1];
+					System.arraycopy(subs, 0, removed, 0, i);
+					System.arraycopy(subs, i + 1, removed, i, subs.length - i
+							- 1);
+					this.subscriptions = removed;
+					return;
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		public void publish(E event) {
+			Subscription<?>[] subs = this.subscriptions;
+			for (int i = 0; i < subs.length; i++)
+				((Subscription<E>) subs[i]).deliver(event);
+		}
+
+		E newRecord() {
+			return this.prototype.newRecord();
+		}
+	}
+
+	private static class Subscription<E extends Event<E>> implements Runnable {
+		private final Topic<E> topic;
+		private final Subscriber<E> subscriber;
+		private final Executor executor;
+
+		// latest event, and the one being delivered, for conflated delivery
+		private E latest;
+		private E delivering;
+		private boolean dirty = false;
+		private boolean scheduled = false;
+
+		Subscription(Topic<E> topic, Subscriber<E> subscriber,
+				Executor executor) {
+			this.topic = topic;
+			this.subscriber = subscriber;
+			this.executor = executor;
+			if (executor != null && topic.conflate) {
+				this.latest = topic.newRecord();
+				this.delivering = topic.newRecord();
+			}
+		}
+
+		void deliver(E event) {
+			if (this.executor == null) {
+				this.subscriber.onEvent(event);
+				return;
+			}
+			if (!this.topic.conflate) {
+				final E copy = this.topic.newRecord();
+				event.copyTo(copy);
+				this.executor.execute(new Runnable() {
+					public void run() {
+						Subscription.this.subscriber.onEvent(copy);
+					}
+				});
+				return;
+			}
+			synchronized (this) {
+				event.copyTo(this.latest);
+				this.dirty = true;
+				// a delivery is already on its way and takes this event
+				if (this.scheduled)
+					return;
+				this.scheduled = true;
+			}
+			this.executor.execute(this);
+		}
+
+		// conflated delivery, runs until no newer event is waiting
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					if (!this.dirty) {
+						this.scheduled = false;
+						return;
+					}
+					E swap = this.latest;
+					this.latest = this.delivering;
+					this.delivering = swap;
+					this.dirty = false;
+				}
+				this.subscriber.onEvent(this.delivering);
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.sonardrone.navigator;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Acquisition times of sensor readings on the monotonic clock of the
+ * navigator, System.nanoTime, which is also the clock of SystemNavClock and
+ * the navigation loop.
+ *
+ * Sensors stamp their readings on clocks of their own: the sensor events on
+ * the elapsed realtime clock on most devices, GPS fixes on elapsed realtime
+ * from API 17 and in GPS time before that. Each reading is back-dated by
+ * its age on its own clock when it is received, so that the latency
+ * between acquisition and delivery is compensated without comparing the
+ * clocks themselves. Ages that are not plausible, e.g. from a sensor clock
+ * of unknown origin, are taken as no latency.
+ */
+public class SensorTime {
+	// longest accepted age of a reading [ns]
+	private static final long MAX_AGE = 2000000000L;
+
+	// Now on the monotonic clock [ns]
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Acquisition time of a sensor event [ns]
+	 *
+	 * @param eventTimestamp
+	 *            SensorEvent.timestamp
+	 */
+	public static long ofSensorEvent(long eventTimestamp) {
+		long now = now();
+		long age = -1;
+		if (Build.VERSION.SDK_INT >= 17)
+			age = SystemClock.elapsedRealtimeNanos() - eventTimestamp;
+		// some devices stamp the events on the uptime clock of nanoTime
+		if (!plausible(age))
+			age = now - eventTimestamp;
+		return now - (plausible(age) ? age : 0);
+	}
+
+	// Acquisition time of a location fix [ns]
+	public static long ofLocation(Location loc) {
+		long now = now();
+		long age;
+		if (Build.VERSION.SDK_INT >= 17)
+			age = SystemClock.elapsedRealtimeNanos()
+					- loc.getElapsedRealtimeNanos();
+		else
+			// GPS time against the wall clock, only as good as the wall clock
+			age = (System.currentTimeMillis() - loc.getTime()) * 1000000L;
+		return now - (plausible(age) ? age : 0);
+	}
+
+	private static boolean plausible(long age) {
+		return age >= 0 && age <= MAX_AGE;
+	}
+}
@@ -0,0 +1,147 @@
+package org.sonardrone.navigator;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * Filter states and covariances of the latest navigation ticks, with the
+ * measurements fused in the interval leading up to each tick. Used to fuse
+ * measurements that arrive after the tick of their time-stamp: the filter
+ * is rewound to the tick before the time-stamp and the later intervals are
+ * replayed with the late measurement added.
+ *
+ * The epochs are kept in a fixed ring of primitive arrays, the oldest epoch
+ * is replaced when the ring is full. Epoch 0 is the oldest kept.
+ */
+public class StateHistory {
+	private final int capacity;
+	private final int stateDOF;
+	private final int measDOF;
+
+	private final long[] times; // tick time [ms]
+	private final int[] nsteps; // dead-reckoning steps at the tick
+	private final double[] states;
+	private final double[] covariances;
+	// measurements fused in the interval, with their values and times
+	private final boolean[] fused;
+	private final double[] values;
+	private final long[] fusedTimes;
+
+	private int first = 0;
+	private int size = 0;
+
+	public StateHistory(int capacity, int stateDOF, int measDOF) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive");
+		this.capacity = capacity;
+		this.stateDOF = stateDOF;
+		this.measDOF = measDOF;
+		this.times = new long[capacity];
+		this.nsteps = new int[capacity];
+		this.states = new double[capacity * stateDOF];
+		this.covariances = new double[capacity * stateDOF * stateDOF];
+		this.fused = new boolean[capacity * measDOF];
+		this.values = new double[capacity * measDOF];
+		this.fusedTimes = new long[capacity * measDOF];
+	}
+
+	public void clear() {
+		this.first = 0;
+		this.size = 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Adds the epoch of a tick, after the epochs already kept
+	 *
+	 * @param mask
+	 *            measurements fused since the previous tick, with their
+	 *            values z and fusion times t
+	 */
+	public void add(long time, DenseMatrix64F x, DenseMatrix64F P,
+			int nsteps, boolean[] mask, double[] z, long[] t) {
+		int slot;
+		if (this.size < this.capacity) {
+			slot = (this.first + this.size) % this.capacity;
+			this.size++;
+		} else {
+			slot = this.first;
+			this.first = (this.first + 1) % this.capacity;
+		}
+		this.times[slot] = time;
+		this.nsteps[slot] = nsteps;
+		this.store(slot, x, P);
+		int m = slot * this.measDOF;
+		System.arraycopy(mask, 0, this.fused, m, this.measDOF);
+		System.arraycopy(z, 0, this.values, m, this.measDOF);
+		System.arraycopy(t, 0, this.fusedTimes, m, this.measDOF);
+	}
+
+	// Latest epoch at or before time, -1 if time is before the oldest
+	public int find(long time) {
+		for (int i = this.size - 1; i >= 0; i--) {
+			if (this.times[this.slot(i)] <= time)
+				return i;
+		}
+		return -1;
+	}
+
+	public long getTime(int epoch) {
+		return this.times[this.slot(epoch)];
+	}
+
+	public int getNsteps(int epoch) {
+		return this.nsteps[this.slot(epoch)];
+	}
+
+	// Copies the filter state of an epoch to x and P
+	public void getState(int epoch, DenseMatrix64F x, DenseMatrix64F P) {
+		int slot = this.slot(epoch);
+		int n = this.stateDOF;
+		System.arraycopy(this.states, slot * n, x.data, 0, n);
+		System.arraycopy(this.covariances, slot * n * n, P.data, 0, n * n);
+	}
+
+	// Replaces the filter state of an epoch, e.g. after a replay
+	public void setState(int epoch, DenseMatrix64F x, DenseMatrix64F P) {
+		this.store(this.slot(epoch), x, P);
+	}
+
+	public boolean isFused(int epoch, int meas) {
+		return this.fused[this.slot(epoch) * this.measDOF + meas];
+	}
+
+	public double getValue(int epoch, int meas) {
+		return this.values[this.slot(epoch) * this.measDOF + meas];
+	}
+
+	public long getFusedTime(int epoch, int meas) {
+		return this.fusedTimes[this.slot(epoch) * this.measDOF + meas];
+	}
+
+	// Records a measurement fused in the interval of an epoch by a replay
+	public void addMeasurement(int epoch, int meas, double value, long time) {
+		int i = this.slot(epoch) * this.measDOF + meas;
+		this.fused[i] = true;
+		this.values[i] = value;
+		this.fusedTimes[i] = time;
+	}
+
+	private void store(int slot, DenseMatrix64F x, DenseMatrix64F P) {
+		int n = this.stateDOF;
+		System.arraycopy(x.data, 0, this.states, slot * n, n);
+		System.arraycopy(P.data, 0, this.covariances, slot * n * n, n * n);
+	}
+
+	private int slot(int epoch) {
+		if (epoch < 0 || epoch >= this.size)
+			throw new IndexOutOfBoundsException("No epoch " + epoch);
+		return (this.first + epoch) % this.capacity;
+	}
+}
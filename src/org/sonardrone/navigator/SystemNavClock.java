@@ -0,0 +1,19 @@
+package org.sonardrone.navigator;
+
+/**
+ * Wall clock time, used when navigating for real
+ */
+public class SystemNavClock implements NavClock {
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	public void sleep(long millis) throws InterruptedException {
+		if (millis > 0)
+			Thread.sleep(millis);
+	}
+}
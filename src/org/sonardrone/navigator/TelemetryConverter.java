@@ -0,0 +1,49 @@
+package org.sonardrone.navigator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Desktop tool that rebuilds the text logs nav.log, state.rf and meas.log
+ * from a binary telemetry log, in the same layout as they are written when
+ * binaryLogSwitch is off.
+ *
+ * Usage: TelemetryConverter telemetry.bin [outputDir]
+ */
+public class TelemetryConverter {
+
+	public static void convert(File telemetry, File outputDir)
+			throws IOException {
+		TelemetryReader reader = new TelemetryReader(telemetry);
+		BufferedWriter navlog = new BufferedWriter(new FileWriter(new File(
+				outputDir, "nav.log")));
+		BufferedWriter statelog = new BufferedWriter(new FileWriter(new File(
+				outputDir, "state.rf")));
+		BufferedWriter measlog = new BufferedWriter(new FileWriter(new File(
+				outputDir, "meas.log")));
+		try {
+			while (reader.next())
+				TextLogFormat.write(reader.type(), reader.time(),
+						reader.values(), navlog, statelog, measlog);
+		} finally {
+			reader.close();
+			navlog.close();
+			statelog.close();
+			measlog.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TelemetryConverter telemetry.bin [outputDir]");
+			System.exit(1);
+		}
+		File telemetry = new File(args[0]);
+		File outputDir = telemetry.getAbsoluteFile().getParentFile();
+		if (args.length > 1)
+			outputDir = new File(args[1]);
+		convert(telemetry, outputDir);
+	}
+}
@@ -0,0 +1,92 @@
+package org.sonardrone.navigator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the records of a binary telemetry log written by TelemetryWriter.
+ * A record cut short at the end of the file, e.g. after a crash, is
+ * ignored.
+ */
+public class TelemetryReader {
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	// values of the current record, one array per record type
+	private final double[][] values;
+	private byte type;
+	private long time;
+
+	public TelemetryReader(File f) throws IOException {
+		this.file = new RandomAccessFile(f, "r");
+		FileChannel channel = this.file.getChannel();
+		this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				channel.size());
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		byte[] magic = new byte[TelemetryWriter.MAGIC.length];
+		if (this.buffer.remaining() < magic.length + 1)
+			throw new IOException("Not a telemetry log: " + f);
+		this.buffer.get(magic);
+		for (int i = 0; i < magic.length; i++) {
+			if (magic[i] != TelemetryWriter.MAGIC[i])
+				throw new IOException("Not a telemetry log: " + f);
+		}
+		byte version = this.buffer.get();
+		if (version != TelemetryWriter.VERSION)
+			throw new IOException("Unsupported telemetry log version "
+					+ version);
+
+		this.values = new double[TelemetryWriter.RECORD_VALUES.length][];
+		for (int i = 0; i < this.values.length; i++)
+			this.values[i] = new double[TelemetryWriter.RECORD_VALUES[i]];
+	}
+
+	/**
+	 * Moves to the next record
+	 *
+	 * @return false at the end of the log
+	 */
+	public boolean next() throws IOException {
+		if (!this.buffer.hasRemaining())
+			return false;
+		int position = this.buffer.position();
+		byte t = this.buffer.get();
+		if (t < 0 || t >= this.values.length)
+			throw new IOException(String.format(
+					"Unknown record type %d at byte %d", t, position));
+		if (this.buffer.remaining() < TelemetryWriter.recordSize(t) - 1) {
+			this.buffer.position(this.buffer.limit());
+			return false;
+		}
+		this.type = t;
+		this.time = this.buffer.getLong();
+		double[] v = this.values[t];
+		for (int i = 0; i < v.length; i++)
+			v[i] = this.buffer.getDouble();
+		return true;
+	}
+
+	public byte type() {
+		return this.type;
+	}
+
+	public long time() {
+		return this.time;
+	}
+
+	/**
+	 * Values of the current record, the array is reused for the next record
+	 * of the same type
+	 */
+	public double[] values() {
+		return this.values[this.type];
+	}
+
+	public void close() throws IOException {
+		this.file.close();
+	}
+}
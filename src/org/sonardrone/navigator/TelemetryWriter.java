@@ -0,0 +1,88 @@
+package org.sonardrone.navigator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary telemetry log, written instead of the text logs when
+ * binaryLogSwitch is set. The file starts with the magic bytes "SDTL" and a
+ * version byte, followed by records of a one byte type tag, the time as a
+ * long and a fixed number of doubles for the record type, all
+ * little-endian:
+ *
+ * START time is the wall clock start time (ms since epoch), no values
+ * STATE time is predictionTime, values as the columns of state.rf
+ * MEAS time is predictionTime, values as the columns of meas.log
+ * NAV time is lastTime, pos, lwp, cwp, dir and goal as in nav.log
+ *
+ * Records are collected in a buffer and written when it is full, so that
+ * logging does not allocate or format anything in the navigation loop.
+ */
+public class TelemetryWriter {
+	public static final byte[] MAGIC = { 'S', 'D', 'T', 'L' };
+	public static final byte VERSION = 1;
+
+	public static final byte START = 0;
+	public static final byte STATE = 1;
+	public static final byte MEAS = 2;
+	public static final byte NAV = 3;
+
+	// number of doubles in each record type
+	public static final int[] RECORD_VALUES = { 0, 10, 7, 10 };
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileOutputStream out;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Opens the log, appending records to an existing log if append is set
+	 */
+	public TelemetryWriter(File file, boolean append) throws IOException {
+		boolean writeHeader = !append || !file.exists() || file.length() == 0;
+		this.out = new FileOutputStream(file, append);
+		this.channel = this.out.getChannel();
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (writeHeader) {
+			this.buffer.put(MAGIC);
+			this.buffer.put(VERSION);
+		}
+	}
+
+	public static int recordSize(byte type) {
+		return 1 + 8 + 8 * RECORD_VALUES[type];
+	}
+
+	public void write(byte type, long time, double[] values)
+			throws IOException {
+		int n = RECORD_VALUES[type];
+		if (values.length < n)
+			throw new IllegalArgumentException(String.format(
+					"Record type %d needs %d values", type, n));
+		if (this.buffer.remaining() < recordSize(type))
+			this.flush();
+		this.buffer.put(type);
+		this.buffer.putLong(time);
+		for (int i = 0; i < n; i++)
+			this.buffer.putDouble(values[i]);
+	}
+
+	public void flush() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining())
+			this.channel.write(this.buffer);
+		this.buffer.clear();
+	}
+
+	public void close() throws IOException {
+		this.flush();
+		this.channel.close();
+		this.out.close();
+	}
+}
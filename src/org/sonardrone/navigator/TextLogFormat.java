@@ -0,0 +1,87 @@
+package org.sonardrone.navigator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Layout of the text logs nav.log, state.rf and meas.log. Used by the
+ * project storage when writing text logs and by TelemetryConverter when
+ * rebuilding them from a binary telemetry log.
+ */
+public final class TextLogFormat {
+	public static final String STATE_HEADER = "Time\tX\tY\tV\tHeading\tTurn-rate\tX_p\tY_p\tV_p\tHeading_p\tTurn-rate_p\n";
+	public static final String MEAS_HEADER = "Time\tX_GPS\tY_GPS\tV_GPS\tHeading_GPS\tHeading_compass\tTurn-rate_rudder\tV_load\n";
+
+	private TextLogFormat() {
+	}
+
+	/**
+	 * Writes a telemetry record (see TelemetryWriter) to the text log it
+	 * belongs to
+	 */
+	public static void write(byte type, long time, double[] values,
+			Writer navlog, Writer statelog, Writer measlog) throws IOException {
+		switch (type) {
+		case TelemetryWriter.START:
+			String timeString = startTime(time);
+			navlog.write(timeString);
+			statelog.write(timeString);
+			measlog.write(timeString);
+			statelog.write(STATE_HEADER);
+			measlog.write(MEAS_HEADER);
+			break;
+		case TelemetryWriter.STATE:
+			statelog.write(state(time, values));
+			break;
+		case TelemetryWriter.MEAS:
+			measlog.write(meas(time, values));
+			break;
+		case TelemetryWriter.NAV:
+			navlog.write(nav(time, values));
+			break;
+		}
+	}
+
+	// startTime in ms since epoch
+	public static String startTime(long startTime) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.setTimeInMillis(startTime);
+		return String.format(
+				"#Start time: %1$ty-%1$tm-%1$td %1$tH:%1$tM:%1$tS:%1$tL\n",
+				calendar);
+	}
+
+	// X Y V Heading Turn-rate X_p Y_p V_p Heading_p Turn-rate_p
+	public static String state(long time, double[] v) {
+		return String.format("%d\t%f\t%f\t%f\t%f\t%f\t%f\t%f\t%f\t%f\t%f\n",
+				time, v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8],
+				v[9]);
+	}
+
+	// X_GPS Y_GPS V_GPS Heading_GPS Heading_compass Turn-rate_rudder V_load
+	public static String meas(long time, double[] v) {
+		return String.format("%d\t%f\t%f\t%f\t%f\t%f\t%f\t%f\n", time, v[0],
+				v[1], v[2], v[3], v[4], v[5], v[6]);
+	}
+
+	// pure pursuit geometry for plotting: pos, lwp, cwp, dir and goal
+	public static String nav(long time, double[] v) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("time: %d\n", time));
+		sb.append("points\tX\tY\n");
+		sb.append(String.format("pos\t%f\t%f\n", v[0], v[1]));
+		sb.append("endpoints\n");
+		sb.append("lines\tX1\tY1\tX2\tY2\n");
+		sb.append(String.format("v\t%f\t%f\t%f\t%f\n", v[2], v[3], v[4], v[5]));
+		sb.append(String.format("Dir\t%f\t%f\t%f\t%f\n", v[0], v[1], v[6],
+				v[7]));
+		sb.append(String.format("Ladapt\t%f\t%f\t%f\t%f\n", v[0], v[1], v[8],
+				v[9]));
+		sb.append("endlines\n");
+		sb.append("circless\tX\tY\tR\ttheta1\ttheta2\n");
+		sb.append("endcircles\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,154 @@
+package org.sonardrone.navigator;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a waypoint file into Waypoints. The file has a header row followed
+ * by one waypoint per row, with x and y separated by tab or space; further
+ * columns and empty rows are ignored.
+ *
+ * The file is read through one reusable char buffer and the coordinates are
+ * parsed in place, so no String or boxed Double is created per row.
+ */
+public class WaypointReader {
+	private static final int BUFFER_SIZE = 8192;
+	// powers of ten that are exact as doubles
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+	private static final long MAX_EXACT = 1L << 53;
+
+	private char[] buf = new char[BUFFER_SIZE];
+	private int pos;
+	private int lineEnd;
+	private int row;
+
+	public static Waypoints read(File file) throws IOException {
+		FileReader reader = new FileReader(file);
+		try {
+			return new WaypointReader().read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads all waypoints of the reader, the reader is not closed
+	 */
+	public Waypoints read(Reader reader) throws IOException {
+		Waypoints wp = new Waypoints();
+		this.row = 0;
+		int len = 0;
+		boolean eof = false;
+		while (true) {
+			if (!eof) {
+				int r = reader.read(this.buf, len, this.buf.length - len);
+				if (r < 0)
+					eof = true;
+				else
+					len += r;
+			}
+			int start = 0;
+			while (start < len) {
+				int nl = start;
+				while (nl < len && this.buf[nl] != '\n')
+					nl++;
+				if (nl == len && !eof)
+					break;
+				this.row++;
+				// drop header
+				if (this.row > 1)
+					this.parseRow(start, nl, wp);
+				start = nl + 1;
+			}
+			if (eof)
+				break;
+			// keep the unfinished row, grow the buffer for very long rows
+			int rest = len - start;
+			if (rest == this.buf.length) {
+				char[] grown = new char[2 * this.buf.length];
+				System.arraycopy(this.buf, 0, grown, 0, rest);
+				this.buf = grown;
+			} else if (rest > 0)
+				System.arraycopy(this.buf, start, this.buf, 0, rest);
+			len = rest;
+		}
+		wp.trimToSize();
+		return wp;
+	}
+
+	private void parseRow(int start, int end, Waypoints wp) throws IOException {
+		this.pos = start;
+		this.lineEnd = end;
+		this.skipBlanks();
+		if (this.pos == this.lineEnd)
+			return;
+		double x = this.number();
+		this.skipBlanks();
+		double y = this.number();
+		wp.add(x, y);
+	}
+
+	private void skipBlanks() {
+		while (this.pos < this.lineEnd) {
+			char c = this.buf[this.pos];
+			if (c != ' ' && c != '\t' && c != '\r')
+				break;
+			this.pos++;
+		}
+	}
+
+	private double number() throws IOException {
+		int start = this.pos;
+		boolean negative = false;
+		if (this.pos < this.lineEnd
+				&& (this.buf[this.pos] == '-' || this.buf[this.pos] == '+')) {
+			negative = this.buf[this.pos] == '-';
+			this.pos++;
+		}
+		long mantissa = 0;
+		int decimals = 0;
+		int digits = 0;
+		boolean fraction = false;
+		boolean exact = true;
+		while (this.pos < this.lineEnd) {
+			char c = this.buf[this.pos];
+			if (c >= '0' && c <= '9') {
+				if (mantissa < MAX_EXACT / 10) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (fraction)
+						decimals++;
+				} else
+					exact = false;
+				digits++;
+			} else if (c == '.' && !fraction)
+				fraction = true;
+			else if (c == ' ' || c == '\t' || c == '\r')
+				break;
+			else
+				exact = false;
+			this.pos++;
+		}
+		if (digits == 0)
+			throw new IOException(String.format(
+					"Missing coordinate in waypoint row %d", this.row));
+		if (exact && decimals < POW10.length) {
+			double value = mantissa / POW10[decimals];
+			return negative ? -value : value;
+		}
+		// exponents and long mantissas
+		String s = new String(this.buf, start, this.pos - start);
+		try {
+			return Double.parseDouble(s);
+		} catch (NumberFormatException e) {
+			throw new IOException(String.format(
+					"Invalid coordinate %s in waypoint row %d", s, this.row));
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package org.sonardrone.navigator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Waypoints in the navigation frame, packed as x, y pairs in one array,
+ * instead of a double[] object per waypoint, so that surveys of hundreds of
+ * thousands of points can be held in memory.
+ *
+ * The distance along the route to each waypoint is kept beside the
+ * coordinates and updated as waypoints are added, so that route lengths
+ * are found without walking the route. A waypoint costs 24 bytes.
+ */
+public class Waypoints implements Iterable<double[]> {
+	private double[] coords;
+	// distance along the route from the first waypoint
+	private double[] dist;
+	private int size = 0;
+
+	public Waypoints() {
+		this(16);
+	}
+
+	public Waypoints(int capacity) {
+		this.coords = new double[2 * Math.max(1, capacity)];
+		this.dist = new double[Math.max(1, capacity)];
+	}
+
+	public Waypoints(Waypoints other) {
+		this.coords = new double[Math.max(2, 2 * other.size)];
+		this.dist = new double[Math.max(1, other.size)];
+		System.arraycopy(other.coords, 0, this.coords, 0, 2 * other.size);
+		System.arraycopy(other.dist, 0, this.dist, 0, other.size);
+		this.size = other.size;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public double getX(int i) {
+		this.check(i);
+		return this.coords[2 * i];
+	}
+
+	public double getY(int i) {
+		this.check(i);
+		return this.coords[2 * i + 1];
+	}
+
+	/**
+	 * Copies waypoint i to p
+	 *
+	 * @return p
+	 */
+	public double[] get(int i, double[] p) {
+		this.check(i);
+		p[0] = this.coords[2 * i];
+		p[1] = this.coords[2 * i + 1];
+		return p;
+	}
+
+	// Waypoint i as a new array
+	public double[] get(int i) {
+		return this.get(i, new double[2]);
+	}
+
+	/**
+	 * Distance along the route from the first waypoint to waypoint i
+	 */
+	public double distance(int i) {
+		this.check(i);
+		return this.dist[i];
+	}
+
+	// Length of the route
+	public double length() {
+		return this.size > 0 ? this.dist[this.size - 1] : 0;
+	}
+
+	public void add(double x, double y) {
+		this.ensureCapacity(this.size + 1);
+		this.coords[2 * this.size] = x;
+		this.coords[2 * this.size + 1] = y;
+		this.updateDistances(this.size);
+		this.size++;
+	}
+
+	/**
+	 * Inserts a waypoint before waypoint i, moving the following waypoints
+	 */
+	public void insert(int i, double x, double y) {
+		if (i < 0 || i > this.size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: "
+					+ this.size);
+		this.ensureCapacity(this.size + 1);
+		System.arraycopy(this.coords, 2 * i, this.coords, 2 * i + 2,
+				2 * (this.size - i));
+		System.arraycopy(this.dist, i, this.dist, i + 1, this.size - i);
+		this.coords[2 * i] = x;
+		this.coords[2 * i + 1] = y;
+		this.size++;
+		for (int j = i; j < this.size; j++)
+			this.updateDistances(j);
+	}
+
+	// distance to waypoint i from the distance to waypoint i - 1
+	private void updateDistances(int i) {
+		if (i == 0) {
+			this.dist[0] = 0;
+			return;
+		}
+		double dx = this.coords[2 * i] - this.coords[2 * i - 2];
+		double dy = this.coords[2 * i + 1] - this.coords[2 * i - 1];
+		this.dist[i] = this.dist[i - 1] + Math.sqrt(dx * dx + dy * dy);
+	}
+
+	public void clear() {
+		this.size = 0;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (2 * capacity <= this.coords.length)
+			return;
+		int n = Math.max(capacity, this.size + this.size / 2);
+		double[] grown = new double[2 * n];
+		System.arraycopy(this.coords, 0, grown, 0, 2 * this.size);
+		this.coords = grown;
+		double[] grownDist = new double[n];
+		System.arraycopy(this.dist, 0, grownDist, 0, this.size);
+		this.dist = grownDist;
+	}
+
+	// Releases unused capacity, e.g. after reading a file
+	public void trimToSize() {
+		if (this.coords.length > 2 * this.size) {
+			double[] trimmed = new double[Math.max(2, 2 * this.size)];
+			System.arraycopy(this.coords, 0, trimmed, 0, 2 * this.size);
+			this.coords = trimmed;
+			double[] trimmedDist = new double[Math.max(1, this.size)];
+			System.arraycopy(this.dist, 0, trimmedDist, 0, this.size);
+			this.dist = trimmedDist;
+		}
+	}
+
+	/**
+	 * Iterates the waypoints in order, each waypoint is copied to a new array
+	 * when it is reached
+	 */
+	public Iterator<double[]> iterator() {
+		return new Iterator<double[]>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return this.next < size;
+			}
+
+			public double[] next() {
+				if (this.next >= size)
+					throw new NoSuchElementException();
+				return get(this.next++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void check(int i) {
+		if (i < 0 || i >= this.size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: "
+					+ this.size);
+	}
+}
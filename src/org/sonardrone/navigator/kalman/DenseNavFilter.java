@@ -0,0 +1,256 @@
+package org.sonardrone.navigator.kalman;
+import org.ejml.alg.dense.decomposition.lu.LUDecompositionAlt;
+import org.ejml.alg.dense.linsol.lu.LinearSolverLu;
+import org.ejml.alg.dense.misc.UnrolledInverseFromMinor;
+import org.ejml.data.*;
+import org.ejml.ops.CommonOps;
+
+/**
+ * Kalman filter with the same equations as NavFilter, but working on
+ * pre-allocated DenseMatrix64F buffers. The reduced H and R for each
+ * combination of new measurements are kept in a cache keyed by the mask bit
+ * pattern, together with the work buffers of that size. The cache is only
+ * rebuilt when H or R change, so a predict/update cycle does not create any
+ * garbage in the navigation loop.
+ */
+public class DenseNavFilter implements KalmanFilter {
+    private final int stateDOF;
+    private final int measDOF;
+
+    // kinematics description
+    private final DenseMatrix64F F;
+    private final DenseMatrix64F Ft;
+    private final DenseMatrix64F Q;
+    private final DenseMatrix64F H;
+    // measurement noise the cached models were built from
+    private final DenseMatrix64F R;
+    private boolean hasR = false;
+
+    // sytem state estimate
+    private final DenseMatrix64F x;
+    private final DenseMatrix64F P;
+
+    // work buffers for predict
+    private final DenseMatrix64F xTmp;
+    private final DenseMatrix64F FP;
+    private final DenseMatrix64F FPFt;
+
+    // work buffers for update, independent of the number of measurements
+    private final DenseMatrix64F Ky;
+    private final DenseMatrix64F KH;
+    private final DenseMatrix64F KHP;
+
+    // used instead of CommonOps.invert for S larger than the unrolled inverse
+    private final LinearSolverLu solver = new LinearSolverLu(
+            new LUDecompositionAlt());
+
+    // scratch rows for sequential scalar updates
+    private final double[] PHt;
+    private final double[] hP;
+    private UpdateStrategy strategy = UpdateStrategy.BATCH;
+
+    // measurement models indexed by mask bit pattern
+    private final MeasurementModel[] models;
+    // incremented whenever H or R change, invalidates all cached models
+    private int generation = 0;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+
+    public DenseNavFilter() {
+        this(5, 7);
+    }
+
+    public DenseNavFilter(int stateDOF, int measDOF) {
+        this.stateDOF = stateDOF;
+        this.measDOF = measDOF;
+
+        F = new DenseMatrix64F(stateDOF, stateDOF);
+        Ft = new DenseMatrix64F(stateDOF, stateDOF);
+        Q = new DenseMatrix64F(stateDOF, stateDOF);
+        H = new DenseMatrix64F(measDOF, stateDOF);
+        R = new DenseMatrix64F(measDOF, measDOF);
+
+        x = new DenseMatrix64F(stateDOF, 1);
+        P = new DenseMatrix64F(stateDOF, stateDOF);
+
+        xTmp = new DenseMatrix64F(stateDOF, 1);
+        FP = new DenseMatrix64F(stateDOF, stateDOF);
+        FPFt = new DenseMatrix64F(stateDOF, stateDOF);
+
+        Ky = new DenseMatrix64F(stateDOF, 1);
+        KH = new DenseMatrix64F(stateDOF, stateDOF);
+        KHP = new DenseMatrix64F(stateDOF, stateDOF);
+
+        PHt = new double[stateDOF];
+        hP = new double[stateDOF];
+
+        models = new MeasurementModel[1 << measDOF];
+    }
+
+    @Override
+    public void setUpdateStrategy(UpdateStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    @Override
+    public UpdateStrategy getUpdateStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public void configure(DenseMatrix64F F, DenseMatrix64F Q, DenseMatrix64F H) {
+        this.F.set(F);
+        this.Q.set(Q);
+        CommonOps.transpose(this.F, this.Ft);
+        // H is normally constant, only invalidate the models if it changed
+        if (!identical(this.H, H)) {
+            this.H.set(H);
+            generation++;
+        }
+    }
+
+    @Override
+    public void bypass(double[] newState) {
+        for (int i = 0; i < stateDOF; i++)
+            x.set(i, newState[i]);
+    }
+
+    @Override
+    public void setState(DenseMatrix64F x, DenseMatrix64F P) {
+        this.x.set(x);
+        this.P.set(P);
+    }
+
+    @Override
+    public void predict() {
+        // x = F x
+        CommonOps.mult(F, x, xTmp);
+        x.set(xTmp);
+
+        // P = F P F' + Q
+        CommonOps.mult(F, P, FP);
+        CommonOps.mult(FP, Ft, FPFt);
+        CommonOps.add(FPFt, Q, P);
+    }
+
+    @Override
+    public void update(DenseMatrix64F _z, DenseMatrix64F _R) {
+        update((1 << measDOF) - 1, _z, _R);
+    }
+
+    @Override
+    public void partialUpdate(boolean[] mask, DenseMatrix64F _z, DenseMatrix64F _R) {
+        int bits = 0;
+        for (int i = 0; i < mask.length; i++) {
+            if (mask[i])
+                bits |= 1 << i;
+        }
+        update(bits, _z, _R);
+    }
+
+    private void update(int bits, DenseMatrix64F _z, DenseMatrix64F _R) {
+        // nothing to fuse
+        if (bits == 0)
+            return;
+
+        // R is normally constant, only invalidate the models if it changed
+        if (!hasR || !identical(R, _R)) {
+            R.set(_R);
+            hasR = true;
+            generation++;
+        }
+
+        MeasurementModel model = models[bits];
+        if (model == null) {
+            model = new MeasurementModel(bits, measDOF, stateDOF);
+            models[bits] = model;
+        }
+        if (model.generation == generation) {
+            cacheHits++;
+        } else {
+            model.build(H, R, generation);
+            cacheMisses++;
+        }
+
+        // with uncorrelated measurements no inversion is needed
+        if (strategy == UpdateStrategy.SEQUENTIAL && model.diagonal) {
+            for (int row = 0; row < model.n; row++) {
+                int i = model.rows[row];
+                SequentialUpdate.update(x, P, H, i, _z.get(i), R.get(i, i),
+                        PHt, hP);
+            }
+            return;
+        }
+        model.selectMeasurements(_z);
+        correct(model);
+    }
+
+    /**
+     * Kalman correction using the reduced model, evaluated in the same order
+     * as NavFilter to give identical results.
+     */
+    private void correct(MeasurementModel m) {
+        // y = z - H x
+        CommonOps.mult(m.Hp, x, m.y);
+        CommonOps.sub(m.zp, m.y, m.y);
+
+        // S = H P H' + R
+        CommonOps.mult(m.Hp, P, m.HP);
+        CommonOps.mult(m.HP, m.Hpt, m.S);
+        CommonOps.addEquals(m.S, m.Rp);
+
+        // K = PH'S^(-1)
+        if (m.n <= UnrolledInverseFromMinor.MAX) {
+            CommonOps.invert(m.S, m.Sinv);
+        } else {
+            solver.setA(m.S);
+            solver.invert(m.Sinv);
+        }
+        CommonOps.mult(m.Hpt, m.Sinv, m.HtSinv);
+        CommonOps.mult(P, m.HtSinv, m.K);
+
+        // x = x + Ky
+        CommonOps.mult(m.K, m.y, Ky);
+        CommonOps.addEquals(x, Ky);
+
+        // P = (I-kH)P = P - KHP
+        CommonOps.mult(m.K, m.Hp, KH);
+        CommonOps.mult(KH, P, KHP);
+        CommonOps.subEquals(P, KHP);
+    }
+
+    private static boolean identical(DenseMatrix64F a, DenseMatrix64F b) {
+        if (a.numRows != b.numRows || a.numCols != b.numCols)
+            return false;
+        int size = a.getNumElements();
+        for (int i = 0; i < size; i++) {
+            if (a.data[i] != b.data[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Number of updates that reused a cached measurement model
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Number of updates that had to build or rebuild a measurement model
+     */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public DenseMatrix64F getState() {
+        return x;
+    }
+
+    @Override
+    public DenseMatrix64F getCovariance() {
+        return P;
+    }
+}
@@ -10,4 +10,6 @@ public interface KalmanFilter {
     public void partialUpdate(boolean[] mask,DenseMatrix64F _z, DenseMatrix64F _R);
     public DenseMatrix64F getState();
     public DenseMatrix64F getCovariance();
+    public void setUpdateStrategy(UpdateStrategy strategy);
+    public UpdateStrategy getUpdateStrategy();
 }
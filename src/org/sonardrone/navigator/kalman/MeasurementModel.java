@@ -0,0 +1,82 @@
+package org.sonardrone.navigator.kalman;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+/**
+ * Reduced measurement model for one combination of available measurements.
+ * Holds the rows of H and R selected by a measurement mask together with the
+ * work buffers needed for a Kalman correction of that size. Instances are
+ * cached by DenseNavFilter and rebuilt in place when H or R change.
+ */
+class MeasurementModel {
+    // rows of the full measurement vector used by this model
+    final int[] rows;
+    final int n;
+    // true if the selected part of R has no off-diagonal elements
+    boolean diagonal;
+    // filter generation the reduced matrices were built for
+    int generation = -1;
+
+    final DenseMatrix64F Hp;
+    final DenseMatrix64F Hpt;
+    final DenseMatrix64F Rp;
+
+    // work buffers
+    final DenseMatrix64F zp;
+    final DenseMatrix64F y;
+    final DenseMatrix64F HP;
+    final DenseMatrix64F S;
+    final DenseMatrix64F Sinv;
+    final DenseMatrix64F HtSinv;
+    final DenseMatrix64F K;
+
+    MeasurementModel(int bits, int measDOF, int stateDOF) {
+        n = Integer.bitCount(bits);
+        rows = new int[n];
+        int row = 0;
+        for (int i = 0; i < measDOF; i++) {
+            if ((bits & (1 << i)) != 0)
+                rows[row++] = i;
+        }
+
+        Hp = new DenseMatrix64F(n, stateDOF);
+        Hpt = new DenseMatrix64F(stateDOF, n);
+        Rp = new DenseMatrix64F(n, n);
+
+        zp = new DenseMatrix64F(n, 1);
+        y = new DenseMatrix64F(n, 1);
+        HP = new DenseMatrix64F(n, stateDOF);
+        S = new DenseMatrix64F(n, n);
+        Sinv = new DenseMatrix64F(n, n);
+        HtSinv = new DenseMatrix64F(stateDOF, n);
+        K = new DenseMatrix64F(stateDOF, n);
+    }
+
+    /**
+     * Copies the selected rows of H and the selected sub-matrix of R.
+     */
+    void build(DenseMatrix64F H, DenseMatrix64F R, int generation) {
+        diagonal = true;
+        for (int row = 0; row < n; row++) {
+            int i = rows[row];
+            for (int j = 0; j < H.numCols; j++)
+                Hp.set(row, j, H.get(i, j));
+            for (int col = 0; col < n; col++) {
+                double r = R.get(i, rows[col]);
+                Rp.set(row, col, r);
+                if (row != col && r != 0)
+                    diagonal = false;
+            }
+        }
+        CommonOps.transpose(Hp, Hpt);
+        this.generation = generation;
+    }
+
+    /**
+     * Copies the selected measurements into zp.
+     */
+    void selectMeasurements(DenseMatrix64F z) {
+        for (int row = 0; row < n; row++)
+            zp.set(row, z.get(rows[row]));
+    }
+}
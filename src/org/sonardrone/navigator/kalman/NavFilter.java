@@ -12,7 +12,18 @@ public class NavFilter implements KalmanFilter{
     private SimpleMatrix x;
     private SimpleMatrix P;
 
-    
+    private UpdateStrategy strategy = UpdateStrategy.BATCH;
+
+    @Override
+    public void setUpdateStrategy(UpdateStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    @Override
+    public UpdateStrategy getUpdateStrategy() {
+        return strategy;
+    }
+
     @Override
     public void configure(DenseMatrix64F F, DenseMatrix64F Q, DenseMatrix64F H) {
         this.F = new SimpleMatrix(F);
@@ -67,6 +78,18 @@ public class NavFilter implements KalmanFilter{
     
     public void partialUpdate(boolean[] mask, DenseMatrix64F _z, DenseMatrix64F _R) {    	
     	
+    	if (strategy == UpdateStrategy.SEQUENTIAL
+    			&& SequentialUpdate.isDiagonal(mask, _R)) {
+    		double[] PHt = new double[H.numCols()];
+    		double[] hP = new double[H.numCols()];
+    		for (int i = 0; i < mask.length; i++) {
+    			if (mask[i])
+    				SequentialUpdate.update(x.getMatrix(), P.getMatrix(),
+    						H.getMatrix(), i, _z.get(i), _R.get(i, i), PHt, hP);
+    		}
+    		return;
+    	}
+    	
     	int nvals=0;
     	for(int i=0;i<mask.length;i++) {
     		if(mask[i])
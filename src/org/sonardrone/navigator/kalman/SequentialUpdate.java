@@ -0,0 +1,72 @@
+package org.sonardrone.navigator.kalman;
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * Scalar Kalman measurement update, used by the filters when running with
+ * UpdateStrategy.SEQUENTIAL. With a diagonal R, fusing the measurements
+ * one row at a time gives the same estimate as the batch update, without
+ * inverting the innovation covariance.
+ */
+final class SequentialUpdate {
+
+    private SequentialUpdate() {
+    }
+
+    /**
+     * Returns true if the masked part of R has no off-diagonal elements, that
+     * is if the masked measurements can be fused one at a time.
+     */
+    static boolean isDiagonal(boolean[] mask, DenseMatrix64F R) {
+        for (int i = 0; i < mask.length; i++) {
+            if (!mask[i])
+                continue;
+            for (int j = 0; j < mask.length; j++) {
+                if (i != j && mask[j] && R.get(i, j) != 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fuses measurement z with variance r and measurement row 'row' of H into
+     * x and P in place. PHt and hP are scratch arrays with one element per
+     * state.
+     */
+    static void update(DenseMatrix64F x, DenseMatrix64F P, DenseMatrix64F H,
+            int row, double z, double r, double[] PHt, double[] hP) {
+        int n = x.numRows;
+
+        // P h' and h P
+        for (int i = 0; i < n; i++) {
+            double sumPHt = 0;
+            double sumhP = 0;
+            for (int k = 0; k < n; k++) {
+                double h = H.get(row, k);
+                if (h == 0)
+                    continue;
+                sumPHt += P.get(i, k) * h;
+                sumhP += h * P.get(k, i);
+            }
+            PHt[i] = sumPHt;
+            hP[i] = sumhP;
+        }
+
+        // s = h P h' + r, y = z - h x
+        double s = r;
+        double y = z;
+        for (int k = 0; k < n; k++) {
+            double h = H.get(row, k);
+            s += h * PHt[k];
+            y -= h * x.get(k);
+        }
+
+        // K = P h' / s, x = x + K y, P = P - K h P
+        for (int i = 0; i < n; i++) {
+            double K = PHt[i] / s;
+            x.set(i, x.get(i) + K * y);
+            for (int j = 0; j < n; j++)
+                P.set(i, j, P.get(i, j) - K * hP[j]);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.sonardrone.navigator.kalman;
+
+/**
+ * How a KalmanFilter fuses a measurement vector.
+ * BATCH inverts the full innovation covariance S in one step.
+ * SEQUENTIAL fuses the measurements one at a time as scalar updates, which
+ * avoids the matrix inversion but requires a diagonal R.
+ */
+public enum UpdateStrategy {
+	BATCH,
+	SEQUENTIAL
+}
@@ -0,0 +1,28 @@
+package org.sonardrone.navigator.sim;
+
+import org.sonardrone.navigator.NavLog;
+
+/**
+ * Navigator logging to standard out/err, debug messages are dropped unless
+ * requested since the navigator logs every iteration.
+ */
+public class ConsoleNavLog implements NavLog {
+	private final boolean debug;
+
+	public ConsoleNavLog(boolean debug) {
+		this.debug = debug;
+	}
+
+	public void d(String tag, String msg) {
+		if (this.debug)
+			System.out.println("D/" + tag + ": " + msg);
+	}
+
+	public void i(String tag, String msg) {
+		System.out.println("I/" + tag + ": " + msg);
+	}
+
+	public void e(String tag, String msg) {
+		System.err.println("E/" + tag + ": " + msg);
+	}
+}
@@ -0,0 +1,70 @@
+package org.sonardrone.navigator.sim;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.ejml.data.DenseMatrix64F;
+import org.sonardrone.navigator.kalman.DenseNavFilter;
+
+/**
+ * Checks that every compass reading is fused once, also when the readings
+ * are time-stamped after the tick they are delivered in. Simulates the
+ * route with compass time-stamps at and after their delivery and counts
+ * the compass updates of the filter against the readings posted.
+ *
+ * Usage: FusionCountCheck projectDir [stamp offsets in ms]...
+ * where projectDir contains waypoints.txt, the offsets default to 0 5 50
+ */
+public class FusionCountCheck {
+	// index of the compass heading in the measurement vector
+	private static final int COMPASS = 4;
+
+	// filter counting the compass measurements it fuses
+	private static class CountingFilter extends DenseNavFilter {
+		int compassUpdates = 0;
+
+		@Override
+		public void partialUpdate(boolean[] mask, DenseMatrix64F _z,
+				DenseMatrix64F _R) {
+			if (mask[COMPASS])
+				this.compassUpdates++;
+			super.partialUpdate(mask, _z, _R);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: FusionCountCheck projectDir "
+					+ "[stamp offsets in ms]...");
+			System.exit(1);
+		}
+		long[] offsets = { 0, 5, 50 };
+		if (args.length > 1) {
+			offsets = new long[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				offsets[i - 1] = Long.parseLong(args[i]);
+		}
+
+		boolean ok = true;
+		System.out.println("Offset [ms]\tposted\tfused");
+		for (long offset : offsets) {
+			SimStorage storage = new SimStorage(new File(args[0]));
+			SimulationRunner runner = new SimulationRunner(storage,
+					new ConsoleNavLog(false));
+			runner.compassLatency = -offset;
+			CountingFilter kf = new CountingFilter();
+			runner.getNavigator().kf = kf;
+			runner.run(2 * 3600 * 1000L);
+
+			long posted = runner.getSimulatedMillis() / runner.compassPeriod;
+			// the last reading may be left for an iteration that never ran
+			boolean once = kf.compassUpdates <= posted
+					&& kf.compassUpdates >= posted - 1;
+			ok &= once;
+			System.out.println(String.format("%d\t%d\t%d%s", offset, posted,
+					kf.compassUpdates, once ? "" : "\tFAILED"));
+		}
+		if (!ok)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,161 @@
+package org.sonardrone.navigator.sim;
+
+import java.util.Random;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.sonardrone.navigator.Navigator;
+import org.sonardrone.navigator.kalman.DenseNavFilter;
+import org.sonardrone.navigator.kalman.KalmanFilter;
+import org.sonardrone.navigator.kalman.NavFilter;
+import org.sonardrone.navigator.kalman.UpdateStrategy;
+
+/**
+ * Compares the measurement updates of the filters over all 127 non-empty
+ * newMeas masks, with H and the diagonal R of a Navigator with the
+ * settings of SettingsTemplate. Checks that the sequential update of
+ * DenseNavFilter gives the same state and covariance as the batch updates,
+ * and prints the time per cycle of configure, predict and partialUpdate.
+ *
+ * Usage: KalmanUpdateBenchmark [cycles per mask] [rounds]
+ */
+public class KalmanUpdateBenchmark {
+	private static final int STATE_DOF = 5;
+	private static final int MEAS_DOF = 7;
+	private static final int MASKS = (1 << MEAS_DOF) - 1;
+	private static final double DT = 0.1;
+
+	// keeps the results alive
+	private static double sink = 0;
+
+	public static void main(String[] args) {
+		int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Navigator nav = new Navigator(new SimulatedClock(0),
+				new ConsoleNavLog(false), new SimStorage());
+		nav.readResources();
+
+		Random random = new Random(1);
+		DenseMatrix64F F = createF(0.7);
+		DenseMatrix64F Q = createQ();
+		DenseMatrix64F H = nav.createH();
+		DenseMatrix64F R = nav.createR();
+		DenseMatrix64F x0 = new DenseMatrix64F(STATE_DOF, 1, true, 100, 200,
+				2.5, 0.7, 0.01);
+		DenseMatrix64F P0 = CommonOps.identity(STATE_DOF);
+
+		// measurements around the state, one set per mask
+		DenseMatrix64F[] z = new DenseMatrix64F[MASKS];
+		boolean[][] masks = new boolean[MASKS][MEAS_DOF];
+		for (int m = 0; m < MASKS; m++) {
+			z[m] = new DenseMatrix64F(MEAS_DOF, 1, true, 100
+					+ random.nextGaussian(), 200 + random.nextGaussian(),
+					2.5 + 0.1 * random.nextGaussian(),
+					0.7 + 0.05 * random.nextGaussian(),
+					0.7 + 0.05 * random.nextGaussian(),
+					0.01 * random.nextGaussian(),
+					2.5 + 0.1 * random.nextGaussian());
+			for (int i = 0; i < MEAS_DOF; i++)
+				masks[m][i] = ((m + 1) & (1 << i)) != 0;
+		}
+
+		KalmanFilter reference = new NavFilter();
+		KalmanFilter batch = newDense(UpdateStrategy.BATCH);
+		KalmanFilter sequential = newDense(UpdateStrategy.SEQUENTIAL);
+		double batchDiff = 0;
+		double sequentialDiff = 0;
+		for (int m = 0; m < MASKS; m++) {
+			cycle(reference, F, Q, H, R, x0, P0, masks[m], z[m]);
+			cycle(batch, F, Q, H, R, x0, P0, masks[m], z[m]);
+			cycle(sequential, F, Q, H, R, x0, P0, masks[m], z[m]);
+			batchDiff = Math.max(batchDiff, difference(reference, batch));
+			sequentialDiff = Math.max(sequentialDiff,
+					difference(reference, sequential));
+		}
+		System.out.println(String.format(
+				"Largest relative difference to NavFilter over %d masks: "
+						+ "dense batch %.1e, dense sequential %.1e", MASKS,
+				batchDiff, sequentialDiff));
+
+		System.out.println("Round\tNavFilter [ns]\tdense batch [ns]"
+				+ "\tdense sequential [ns]");
+		for (int r = 0; r < rounds; r++) {
+			double n = cycles * (double) MASKS;
+			long t0 = System.nanoTime();
+			run(reference, F, Q, H, R, x0, P0, masks, z, cycles);
+			long t1 = System.nanoTime();
+			run(batch, F, Q, H, R, x0, P0, masks, z, cycles);
+			long t2 = System.nanoTime();
+			run(sequential, F, Q, H, R, x0, P0, masks, z, cycles);
+			long t3 = System.nanoTime();
+			System.out.println(String.format("%d\t%.0f\t%.0f\t%.0f", r,
+					(t1 - t0) / n, (t2 - t1) / n, (t3 - t2) / n));
+		}
+		if (sink == 0)
+			System.out.println();
+	}
+
+	private static KalmanFilter newDense(UpdateStrategy strategy) {
+		KalmanFilter kf = new DenseNavFilter(STATE_DOF, MEAS_DOF);
+		kf.setUpdateStrategy(strategy);
+		return kf;
+	}
+
+	private static void run(KalmanFilter kf, DenseMatrix64F F,
+			DenseMatrix64F Q, DenseMatrix64F H, DenseMatrix64F R,
+			DenseMatrix64F x0, DenseMatrix64F P0, boolean[][] masks,
+			DenseMatrix64F[] z, int cycles) {
+		for (int c = 0; c < cycles; c++) {
+			for (int m = 0; m < MASKS; m++) {
+				cycle(kf, F, Q, H, R, x0, P0, masks[m], z[m]);
+				sink += kf.getState().get(0);
+			}
+		}
+	}
+
+	// one iteration of the navigation loop from the prior x0, P0
+	private static void cycle(KalmanFilter kf, DenseMatrix64F F,
+			DenseMatrix64F Q, DenseMatrix64F H, DenseMatrix64F R,
+			DenseMatrix64F x0, DenseMatrix64F P0, boolean[] mask,
+			DenseMatrix64F z) {
+		kf.setState(x0, P0);
+		kf.configure(F, Q, H);
+		kf.predict();
+		kf.partialUpdate(mask, z, R);
+	}
+
+	// largest difference of state and covariance, relative to the largest
+	// element of the reference
+	private static double difference(KalmanFilter reference, KalmanFilter kf) {
+		double diff = 0;
+		DenseMatrix64F[] a = { reference.getState(), reference.getCovariance() };
+		DenseMatrix64F[] b = { kf.getState(), kf.getCovariance() };
+		for (int k = 0; k < a.length; k++) {
+			double scale = Math.max(CommonOps.elementMaxAbs(a[k]), 1e-12);
+			for (int i = 0; i < a[k].getNumElements(); i++)
+				diff = Math.max(diff, Math.abs(a[k].get(i) - b[k].get(i))
+						/ scale);
+		}
+		return diff;
+	}
+
+	// as Navigator.createF
+	private static DenseMatrix64F createF(double phi) {
+		DenseMatrix64F F = CommonOps.identity(STATE_DOF);
+		F.set(0, 2, Math.sin(phi) * DT);
+		F.set(1, 2, Math.cos(phi) * DT);
+		F.set(3, 4, DT);
+		return F;
+	}
+
+	private static DenseMatrix64F createQ() {
+		DenseMatrix64F Q = new DenseMatrix64F(STATE_DOF, STATE_DOF);
+		Q.set(0, 0, 0.01);
+		Q.set(1, 1, 0.01);
+		Q.set(2, 2, 0.0025);
+		Q.set(3, 3, 0.001);
+		Q.set(4, 4, 1e6);
+		return Q;
+	}
+}
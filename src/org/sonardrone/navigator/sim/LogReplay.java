@@ -0,0 +1,239 @@
+package org.sonardrone.navigator.sim;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.sonardrone.navigator.LogStore;
+import org.sonardrone.navigator.NavLog;
+import org.sonardrone.navigator.Navigator;
+import org.sonardrone.navigator.TelemetryWriter;
+
+/**
+ * Replays a recorded run through the Kalman filter and the pure pursuit
+ * controller, as fast as they can be evaluated. The GPS and compass
+ * measurements of meas.log are given to the navigator in the iteration they
+ * were logged in, while the encoder measurements are produced by the
+ * replayed controller. Settings and waypoints are read from the project, so
+ * that filter changes can be tried on field data, and the new logs are
+ * written to an output directory to be compared with the recorded ones.
+ *
+ * The navigator starts from the state the first recorded prediction was
+ * made from, and the clock starts at the recorded start time, so that
+ * encoder readings are time-stamped as on the device.
+ *
+ * meas.log only keeps the tick a measurement was logged in, so the replayed
+ * measurements are time-stamped with that tick and not with their
+ * acquisition time; a run that fused late or back-dated measurements is
+ * not reproduced exactly. Replaying a binary log of a simulator run
+ * reproduces state.rf exactly. Text logs are printed with limited
+ * precision, and the rounded measurements and initial state can make the
+ * replayed track drift far from the recorded one, so a text log replay is
+ * only approximate.
+ *
+ * Usage: LogReplay projectDir outputDir [run]
+ */
+public class LogReplay {
+	private static final String TAG = "LogReplay";
+
+	private final LogStore recorded;
+	private final SimStorage storage;
+	private final NavLog log;
+	private final int run;
+
+	private Navigator nav;
+	private LogStore.Cursor meas;
+	// next recorded measurement row
+	private final double[] row = new double[TelemetryWriter.RECORD_VALUES[TelemetryWriter.MEAS]];
+	private long rowTime;
+	private boolean hasRow;
+	private long rows = 0;
+
+	/**
+	 * @param recorded
+	 *            recorded logs, see LogStore.importLogs
+	 * @param storage
+	 *            settings and waypoints of the recorded run, and logs for the
+	 *            replay
+	 * @param run
+	 *            run in the recorded logs to replay
+	 */
+	public LogReplay(LogStore recorded, SimStorage storage, NavLog log, int run) {
+		this.recorded = recorded;
+		this.storage = storage;
+		this.log = log;
+		this.run = run;
+	}
+
+	public Navigator getNavigator() {
+		return this.nav;
+	}
+
+	/**
+	 * Replays the run
+	 *
+	 * @return number of measurement rows replayed
+	 */
+	public long run() {
+		// start time and first state record of the run
+		long startTime = 0;
+		double[] first = null;
+		LogStore.Cursor c = this.recorded.seek(this.run, Long.MIN_VALUE);
+		while (c.next() && c.run() == this.run) {
+			if (c.type() == TelemetryWriter.START)
+				startTime = c.time();
+			else if (c.type() == TelemetryWriter.STATE) {
+				first = c.values().clone();
+				break;
+			}
+		}
+		if (first == null) {
+			this.log.e(TAG, "No state records in run " + this.run);
+			return 0;
+		}
+
+		final SimulatedClock clock = new SimulatedClock(startTime);
+		this.nav = new Navigator(clock, this.log, this.storage);
+		this.nav.readResources();
+		this.nav.setWaypoints();
+
+		// invert the first prediction, x_p = F(phi) x
+		double dt = this.nav.getDt();
+		double V = first[7];
+		double turnRate = first[9];
+		double phi = first[8] - turnRate * dt;
+		this.nav.set_pos(new double[] { first[5] - sin(phi) * V * dt,
+				first[6] - cos(phi) * V * dt });
+		this.nav.set_V(V);
+		this.nav.set_phi(phi);
+		this.nav.set_turn_rate(turnRate);
+
+		this.nav.initTime();
+		this.nav.initNavigation();
+		if (this.nav.simulator)
+			this.nav.init_sim_state();
+
+		this.meas = this.recorded.seek(this.run, Long.MIN_VALUE);
+		this.nextRow();
+		if (!this.hasRow)
+			return 0;
+
+		// give the measurements just before the iteration they were logged in
+		long period = (long) (dt * 1000);
+		clock.schedule(new Runnable() {
+			public void run() {
+				long navTime = nav.getNavTime();
+				while (hasRow && rowTime <= navTime + 1) {
+					nav.setLoggedMeasurements(row, rowTime);
+					rows++;
+					nextRow();
+				}
+				// stop after the iteration of the last row
+				if (!hasRow)
+					nav.setActive(false);
+			}
+		}, this.rowTime - 1, period);
+
+		this.nav.run();
+		this.nav.finish();
+		return this.rows;
+	}
+
+	private void nextRow() {
+		this.hasRow = false;
+		while (this.meas.next() && this.meas.run() == this.run) {
+			if (this.meas.type() == TelemetryWriter.MEAS) {
+				System.arraycopy(this.meas.values(), 0, this.row, 0,
+						this.row.length);
+				this.rowTime = this.meas.time();
+				this.hasRow = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Largest difference per column between the state records of the
+	 * recorded and replayed logs, for the times found in both
+	 */
+	public static double[] compare(LogStore recorded, int recordedRun,
+			LogStore replayed, double[] rms) {
+		int n = TelemetryWriter.RECORD_VALUES[TelemetryWriter.STATE];
+		double[] maxDiff = new double[n];
+		double[] sum = new double[n];
+		long matched = 0;
+		LogStore.Cursor a = recorded.seek(recordedRun, Long.MIN_VALUE);
+		LogStore.Cursor b = replayed.seek(0, Long.MIN_VALUE);
+		double[] va = null;
+		long ta = 0;
+		while (b.next()) {
+			if (b.type() != TelemetryWriter.STATE)
+				continue;
+			// advance the recorded log to the same time
+			while ((va == null || ta < b.time()) && a.next()
+					&& a.run() == recordedRun) {
+				if (a.type() == TelemetryWriter.STATE) {
+					va = a.values();
+					ta = a.time();
+				}
+			}
+			if (va == null || ta != b.time())
+				continue;
+			double[] vb = b.values();
+			for (int i = 0; i < n; i++) {
+				double d = Math.abs(va[i] - vb[i]);
+				maxDiff[i] = Math.max(maxDiff[i], d);
+				sum[i] += d * d;
+			}
+			matched++;
+		}
+		if (rms != null) {
+			for (int i = 0; i < n; i++)
+				rms[i] = matched > 0 ? Math.sqrt(sum[i] / matched) : 0;
+		}
+		return maxDiff;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: LogReplay projectDir outputDir [run]");
+			System.exit(1);
+		}
+		File projectDir = new File(args[0]);
+		File outputDir = new File(args[1]);
+		if (!outputDir.exists() && !outputDir.mkdirs())
+			throw new IOException("Could not create " + outputDir);
+
+		LogStore recorded = LogStore.importLogs(projectDir);
+		int run = recorded.runs() - 1;
+		if (args.length > 2)
+			run = Integer.parseInt(args[2]);
+
+		SimStorage storage = new SimStorage(projectDir);
+		storage.setLogDir(outputDir);
+		storage.initLogs();
+		LogReplay replay = new LogReplay(recorded, storage, new ConsoleNavLog(
+				false), run);
+
+		long wallStart = System.currentTimeMillis();
+		long rows = replay.run();
+		long wallTime = System.currentTimeMillis() - wallStart;
+		System.out.println(String.format(
+				"Replayed %d rows (%.1f s) of run %d in %.2f s", rows,
+				rows * replay.getNavigator().getDt(), run, wallTime / 1000.0));
+
+		LogStore replayed = LogStore.importLogs(outputDir);
+		double[] rms = new double[10];
+		double[] max = compare(recorded, run, replayed, rms);
+		String[] columns = { "X", "Y", "V", "Heading", "Turn-rate", "X_p",
+				"Y_p", "V_p", "Heading_p", "Turn-rate_p" };
+		System.out.println("Column\tmax diff\trms diff");
+		for (int i = 0; i < columns.length; i++)
+			System.out.println(String.format("%s\t%g\t%g", columns[i],
+					max[i], rms[i]));
+		recorded.close();
+		replayed.close();
+	}
+}
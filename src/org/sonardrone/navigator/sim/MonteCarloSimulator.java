@@ -0,0 +1,332 @@
+package org.sonardrone.navigator.sim;
+
+import static java.lang.Math.sqrt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.sonardrone.navigator.NavLog;
+import org.sonardrone.navigator.Navigator;
+
+/**
+ * Runs many seeded simulated missions of the same route in parallel, for
+ * one or more sets of navigator parameters. Every parameter set is run with
+ * the same seeds, so differences between the sets are not hidden by noise.
+ * For each set the distributions of cross-track error, time to complete the
+ * route and distance to each waypoint when it was passed are reported.
+ *
+ * Usage: MonteCarloSimulator projectDir missions [name=v1,v2,...]...
+ * where every combination of the given parameter values is simulated, e.g.
+ * MonteCarloSimulator survey 1000 look_ahead=5,10,20 tolerance=3,5
+ */
+public class MonteCarloSimulator {
+	// period for sampling the true position of the boat, in milliseconds
+	private static final long SAMPLE_PERIOD = 100;
+
+	public long maxMillis = 2 * 3600 * 1000;
+	public long baseSeed = 1;
+
+	private final SimStorage template;
+	private final int threads;
+
+	/**
+	 * Statistics of one simulated mission
+	 */
+	public static class MissionResult {
+		public boolean completed;
+		// simulated time in seconds
+		public double time;
+		// cross-track error from the true position to the current leg
+		public double xteRms;
+		public double xteMax;
+		// distance from the true position to each waypoint when passed
+		public double[] misses;
+	}
+
+	/**
+	 * Results of all missions run with one parameter set
+	 */
+	public static class Summary {
+		public final Map<String, String> parameters;
+		public final int missions;
+		public final int completed;
+		public final Distribution time;
+		public final Distribution xteRms;
+		public final Distribution xteMax;
+		public final Distribution misses;
+
+		Summary(Map<String, String> parameters, List<MissionResult> results) {
+			this.parameters = parameters;
+			this.missions = results.size();
+			double[] time = new double[results.size()];
+			double[] xteRms = new double[results.size()];
+			double[] xteMax = new double[results.size()];
+			int nMisses = 0;
+			for (int i = 0; i < results.size(); i++)
+				nMisses += results.get(i).misses.length;
+			double[] misses = new double[nMisses];
+			int completed = 0;
+			int j = 0;
+			for (int i = 0; i < results.size(); i++) {
+				MissionResult r = results.get(i);
+				if (r.completed)
+					completed++;
+				time[i] = r.time;
+				xteRms[i] = r.xteRms;
+				xteMax[i] = r.xteMax;
+				System.arraycopy(r.misses, 0, misses, j, r.misses.length);
+				j += r.misses.length;
+			}
+			this.completed = completed;
+			this.time = new Distribution(time);
+			this.xteRms = new Distribution(xteRms);
+			this.xteMax = new Distribution(xteMax);
+			this.misses = new Distribution(misses);
+		}
+	}
+
+	/**
+	 * Sorted sample with percentiles
+	 */
+	public static class Distribution {
+		private final double[] values;
+
+		Distribution(double[] values) {
+			this.values = values;
+			Arrays.sort(this.values);
+		}
+
+		public int size() {
+			return this.values.length;
+		}
+
+		public double mean() {
+			if (this.values.length == 0)
+				return Double.NaN;
+			double sum = 0;
+			for (int i = 0; i < this.values.length; i++)
+				sum += this.values[i];
+			return sum / this.values.length;
+		}
+
+		// nearest-rank percentile, p in [0,100]
+		public double percentile(double p) {
+			if (this.values.length == 0)
+				return Double.NaN;
+			int rank = (int) Math.ceil(p / 100.0 * this.values.length);
+			return this.values[Math.max(0, Math.min(rank - 1,
+					this.values.length - 1))];
+		}
+
+		public double max() {
+			return this.percentile(100);
+		}
+
+		public String toString() {
+			return String.format("mean %8.2f  p50 %8.2f  p95 %8.2f  max %8.2f",
+					this.mean(), this.percentile(50), this.percentile(95),
+					this.max());
+		}
+	}
+
+	// the navigator logs every iteration, which is not wanted for batches
+	private static class SilentNavLog implements NavLog {
+		public void d(String tag, String msg) {
+		}
+
+		public void i(String tag, String msg) {
+		}
+
+		public void e(String tag, String msg) {
+		}
+	}
+
+	/**
+	 * @param template
+	 *            settings and route shared by all missions
+	 * @param threads
+	 *            number of missions simulated at the same time
+	 */
+	public MonteCarloSimulator(SimStorage template, int threads) {
+		this.template = template;
+		this.threads = threads;
+	}
+
+	public MonteCarloSimulator(SimStorage template) {
+		this(template, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Simulates the given number of missions for each parameter set. The
+	 * parameters override the settings of the template storage.
+	 */
+	public List<Summary> run(List<Map<String, String>> parameterSets,
+			int missions) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			List<List<Future<MissionResult>>> futures = new ArrayList<List<Future<MissionResult>>>();
+			for (int p = 0; p < parameterSets.size(); p++) {
+				List<Future<MissionResult>> setFutures = new ArrayList<Future<MissionResult>>();
+				for (int i = 0; i < missions; i++)
+					setFutures.add(executor.submit(this.mission(
+							parameterSets.get(p), this.baseSeed + i)));
+				futures.add(setFutures);
+			}
+
+			List<Summary> summaries = new ArrayList<Summary>();
+			for (int p = 0; p < parameterSets.size(); p++) {
+				List<MissionResult> results = new ArrayList<MissionResult>();
+				for (Future<MissionResult> f : futures.get(p)) {
+					try {
+						results.add(f.get());
+					} catch (ExecutionException e) {
+						throw new IllegalStateException("Simulation failed",
+								e.getCause());
+					}
+				}
+				summaries.add(new Summary(parameterSets.get(p), results));
+			}
+			return summaries;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Callable<MissionResult> mission(
+			final Map<String, String> parameters, final long seed) {
+		return new Callable<MissionResult>() {
+			public MissionResult call() {
+				SimStorage storage = new SimStorage(template);
+				for (Map.Entry<String, String> par : parameters.entrySet())
+					storage.setParameter(par.getKey(), par.getValue());
+				return simulate(storage, seed);
+			}
+		};
+	}
+
+	/**
+	 * Simulates one mission and samples the true position of the boat
+	 * relative to the current leg.
+	 */
+	public MissionResult simulate(SimStorage storage, long seed) {
+		SimulationRunner runner = new SimulationRunner(storage,
+				new SilentNavLog());
+		final Navigator nav = runner.getNavigator();
+		nav.setSeed(seed);
+
+		final double[] xte = new double[3]; // sum of squares, max, samples
+		final List<Double> misses = new ArrayList<Double>();
+		runner.getClock().schedule(new Runnable() {
+			private double[] lastCwp = null;
+
+			public void run() {
+				double[] pos = nav.getSimPos();
+				if (pos == null)
+					return;
+				double[] cwp = nav.getCWP();
+				// a new cwp means that the last one was passed
+				if (this.lastCwp != null && cwp != this.lastCwp)
+					misses.add(Navigator.mag(Navigator.minus(pos,
+							this.lastCwp)));
+				this.lastCwp = cwp;
+				if (cwp == null || nav.getLWP() == null)
+					return;
+				double e = crossTrackError(pos, nav.getLWP(), cwp);
+				xte[0] += e * e;
+				xte[1] = Math.max(xte[1], e);
+				xte[2]++;
+			}
+		}, SAMPLE_PERIOD, SAMPLE_PERIOD);
+
+		MissionResult result = new MissionResult();
+		result.completed = runner.run(this.maxMillis);
+		result.time = runner.getSimulatedMillis() / 1000.0;
+		result.xteRms = xte[2] > 0 ? sqrt(xte[0] / xte[2]) : 0;
+		result.xteMax = xte[1];
+		result.misses = new double[misses.size()];
+		for (int i = 0; i < misses.size(); i++)
+			result.misses[i] = misses.get(i);
+		return result;
+	}
+
+	/**
+	 * Distance from pos to the leg between lwp and cwp
+	 */
+	static double crossTrackError(double[] pos, double[] lwp, double[] cwp) {
+		double[] v = Navigator.minus(cwp, lwp);
+		double[] w = Navigator.minus(pos, lwp);
+		double len2 = Navigator.dot(v, v);
+		double u = len2 > 0 ? Navigator.dot(w, v) / len2 : 0;
+		u = Math.max(0, Math.min(1, u));
+		double dx = w[0] - u * v[0];
+		double dy = w[1] - u * v[1];
+		return sqrt(dx * dx + dy * dy);
+	}
+
+	// every combination of the parameter values
+	static List<Map<String, String>> parameterGrid(
+			Map<String, String[]> values) {
+		List<Map<String, String>> grid = new ArrayList<Map<String, String>>();
+		grid.add(new LinkedHashMap<String, String>());
+		for (Map.Entry<String, String[]> par : values.entrySet()) {
+			List<Map<String, String>> expanded = new ArrayList<Map<String, String>>();
+			for (Map<String, String> set : grid) {
+				for (String value : par.getValue()) {
+					Map<String, String> s = new LinkedHashMap<String, String>(
+							set);
+					s.put(par.getKey(), value);
+					expanded.add(s);
+				}
+			}
+			grid = expanded;
+		}
+		return grid;
+	}
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: MonteCarloSimulator projectDir missions [name=v1,v2,...]...");
+			System.exit(1);
+		}
+		SimStorage template = new SimStorage(new File(args[0]));
+		template.setWaypoints(template.read_waypoints());
+		int missions = Integer.parseInt(args[1]);
+
+		Map<String, String[]> values = new LinkedHashMap<String, String[]>();
+		for (int i = 2; i < args.length; i++) {
+			String[] keyValues = args[i].split("=");
+			values.put(keyValues[0].trim(), keyValues[1].split(","));
+		}
+		List<Map<String, String>> parameterSets = parameterGrid(values);
+
+		MonteCarloSimulator simulator = new MonteCarloSimulator(template);
+		long wallStart = System.currentTimeMillis();
+		List<Summary> summaries = simulator.run(parameterSets, missions);
+		long wallTime = System.currentTimeMillis() - wallStart;
+
+		for (Summary s : summaries) {
+			System.out.println(String.format("%s completed %d/%d",
+					s.parameters.isEmpty() ? "defaults" : s.parameters
+							.toString(), s.completed, s.missions));
+			System.out.println("  time (s)     " + s.time);
+			System.out.println("  xte rms (m)  " + s.xteRms);
+			System.out.println("  xte max (m)  " + s.xteMax);
+			System.out.println("  wp miss (m)  " + s.misses);
+		}
+		System.out.println(String.format(
+				"%d missions on %d threads in %.1f s",
+				missions * parameterSets.size(), simulator.threads,
+				wallTime / 1000.0));
+	}
+}
@@ -0,0 +1,141 @@
+package org.sonardrone.navigator.sim;
+
+import java.util.Random;
+
+import org.sonardrone.proj.GaussKreuger;
+import org.sonardrone.proj.positions.SWEREF99Position;
+import org.sonardrone.proj.positions.SWEREF99Position.SWEREFProjection;
+
+/**
+ * Compares the default projection, rounded to mm, with the full precision
+ * projection:
+ *
+ * - round-trip error of geodetic to grid to geodetic, over Sweden
+ * - error of speed and bearing derived from consecutive fixes of a boat
+ * track, as in Navigator.updateGPSVel and updateGPSBearing
+ * - time per point of both modes
+ *
+ * Usage: ProjectionAccuracy [points] [speed m/s] [fix interval s]
+ */
+public class ProjectionAccuracy {
+	private static final double M_PER_DEG = 111320.0;
+	// keeps the results alive
+	private static double sink = 0;
+
+	public static void main(String[] args) {
+		int points = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.5;
+		double interval = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+
+		GaussKreuger rounded = SWEREF99Position.getGaussKreuger(
+				SWEREFProjection.sweref_99_tm, false);
+		GaussKreuger full = SWEREF99Position.getGaussKreuger(
+				SWEREFProjection.sweref_99_tm, true);
+
+		Random random = new Random(1);
+		double[] geo = new double[2 * points];
+		for (int i = 0; i < points; i++) {
+			geo[2 * i] = 55.5 + 13.0 * random.nextDouble();
+			geo[2 * i + 1] = 11.5 + 12.0 * random.nextDouble();
+		}
+
+		System.out.println("Round trip error [m]\tmax\trms");
+		roundTrip("rounded", rounded, geo, points);
+		roundTrip("full", full, geo, points);
+
+		System.out.println(String.format(
+				"Error of track derivatives, %.1f m/s, fix every %.2f s",
+				speed, interval));
+		System.out.println("Mode\tspeed rms [m/s]\tspeed max [m/s]"
+				+ "\tbearing rms [deg]\tbearing max [deg]");
+		track("rounded", rounded, full, random, points, speed, interval);
+		track("full", full, full, random, points, speed, interval);
+
+		double[] grid = new double[2 * points];
+		System.out.println("Time per point [ns]\trounded\tfull");
+		for (int r = 0; r < 5; r++) {
+			long t0 = System.nanoTime();
+			rounded.geodetic_to_grid(geo, 0, grid, 0, points);
+			long t1 = System.nanoTime();
+			sink += grid[0];
+			full.geodetic_to_grid(geo, 0, grid, 0, points);
+			long t2 = System.nanoTime();
+			sink += grid[0];
+			System.out.println(String.format("%d\t%.1f\t%.1f", r, (t1 - t0)
+					/ (double) points, (t2 - t1) / (double) points));
+		}
+		if (sink == 0)
+			System.out.println();
+	}
+
+	private static void roundTrip(String name, GaussKreuger projection,
+			double[] geo, int points) {
+		double[] grid = new double[2];
+		double[] back = new double[2];
+		double max = 0;
+		double sum = 0;
+		for (int i = 0; i < points; i++) {
+			double lat = geo[2 * i];
+			double lon = geo[2 * i + 1];
+			projection.geodetic_to_grid(lat, lon, grid);
+			projection.grid_to_geodetic(grid[0], grid[1], back);
+			double dn = (back[0] - lat) * M_PER_DEG;
+			double de = (back[1] - lon) * M_PER_DEG
+					* Math.cos(Math.toRadians(lat));
+			double e = dn * dn + de * de;
+			sum += e;
+			max = Math.max(max, e);
+		}
+		System.out.println(String.format("%s\t%.2e\t%.2e", name,
+				Math.sqrt(max), Math.sqrt(sum / points)));
+	}
+
+	// Straight legs in random directions; the derivatives of the projected
+	// fixes are compared with those of the unrounded projection
+	private static void track(String name, GaussKreuger projection,
+			GaussKreuger reference, Random random, int points, double speed,
+			double interval) {
+		double step = speed * interval;
+		double lat = 59.3;
+		double lon = 18.0;
+		double bearing = 0;
+		double[] prev = new double[2];
+		double[] cur = new double[2];
+		double[] refPrev = new double[2];
+		double[] refCur = new double[2];
+		projection.geodetic_to_grid(lat, lon, prev);
+		reference.geodetic_to_grid(lat, lon, refPrev);
+
+		double vMax = 0, vSum = 0, bMax = 0, bSum = 0;
+		for (int i = 0; i < points; i++) {
+			if (i % 100 == 0)
+				bearing = 2 * Math.PI * random.nextDouble();
+			lat += step * Math.cos(bearing) / M_PER_DEG;
+			lon += step * Math.sin(bearing)
+					/ (M_PER_DEG * Math.cos(Math.toRadians(lat)));
+			projection.geodetic_to_grid(lat, lon, cur);
+			reference.geodetic_to_grid(lat, lon, refCur);
+
+			double dn = cur[0] - prev[0], de = cur[1] - prev[1];
+			double rn = refCur[0] - refPrev[0], re = refCur[1] - refPrev[1];
+			double v = Math.hypot(dn, de) / interval;
+			double vRef = Math.hypot(rn, re) / interval;
+			double b = Math.atan2(de, dn) - Math.atan2(re, rn);
+			b = Math.toDegrees(Math.atan2(Math.sin(b), Math.cos(b)));
+
+			vSum += (v - vRef) * (v - vRef);
+			vMax = Math.max(vMax, Math.abs(v - vRef));
+			bSum += b * b;
+			bMax = Math.max(bMax, Math.abs(b));
+
+			double[] t = prev;
+			prev = cur;
+			cur = t;
+			t = refPrev;
+			refPrev = refCur;
+			refCur = t;
+		}
+		System.out.println(String.format("%s\t%.2e\t%.2e\t%.2e\t%.2e", name,
+				Math.sqrt(vSum / points), vMax, Math.sqrt(bSum / points), bMax));
+	}
+}
@@ -0,0 +1,86 @@
+package org.sonardrone.navigator.sim;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.sonardrone.proj.GaussKreuger;
+import org.sonardrone.proj.positions.SWEREF99Position;
+import org.sonardrone.proj.positions.SWEREF99Position.SWEREFProjection;
+import org.sonardrone.proj.positions.WGS84Position;
+
+/**
+ * Compares the time per point of projecting a track to SWEREF99 TM and back
+ * with one position object per point and with the packed array
+ * conversions of GaussKreuger, on one thread and split over a thread pool.
+ * Each case is repeated so that the last rounds show the compiled code.
+ *
+ * Usage: ProjectionBenchmark [points] [threads] [rounds]
+ */
+public class ProjectionBenchmark {
+	// keeps the results alive
+	private static double sink = 0;
+
+	public static void main(String[] args) throws InterruptedException {
+		int points = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		// track around Stockholm
+		Random random = new Random(1);
+		double[] track = new double[2 * points];
+		for (int i = 0; i < points; i++) {
+			track[2 * i] = 59.0 + random.nextDouble();
+			track[2 * i + 1] = 17.5 + random.nextDouble();
+		}
+		double[] grid = new double[2 * points];
+		double[] geo = new double[2 * points];
+
+		GaussKreuger projection = SWEREF99Position
+				.getGaussKreuger(SWEREFProjection.sweref_99_tm);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		System.out.println(String.format(
+				"%d points, %d threads, ns per point", points, threads));
+		System.out.println("Round\tobjects\tarray\tparallel\t"
+				+ "objects back\tarray back\tparallel back");
+		try {
+			for (int r = 0; r < rounds; r++) {
+				long t0 = System.nanoTime();
+				for (int i = 0; i < points; i++) {
+					WGS84Position wgsPos = new WGS84Position(track[2 * i],
+							track[2 * i + 1]);
+					SWEREF99Position pos = new SWEREF99Position(wgsPos,
+							SWEREFProjection.sweref_99_tm);
+					sink += pos.getLatitude();
+				}
+				long t1 = System.nanoTime();
+				projection.geodetic_to_grid(track, 0, grid, 0, points);
+				long t2 = System.nanoTime();
+				projection.geodetic_to_grid(track, grid, points, executor);
+				long t3 = System.nanoTime();
+				for (int i = 0; i < points; i++) {
+					SWEREF99Position pos = new SWEREF99Position(grid[2 * i],
+							grid[2 * i + 1]);
+					sink += pos.toWGS84().getLatitude();
+				}
+				long t4 = System.nanoTime();
+				projection.grid_to_geodetic(grid, 0, geo, 0, points);
+				long t5 = System.nanoTime();
+				projection.grid_to_geodetic(grid, geo, points, executor);
+				long t6 = System.nanoTime();
+				sink += grid[0] + geo[0];
+
+				double n = points;
+				System.out.println(String.format(
+						"%d\t%.0f\t%.0f\t%.0f\t%.0f\t%.0f\t%.0f", r,
+						(t1 - t0) / n, (t2 - t1) / n, (t3 - t2) / n,
+						(t4 - t3) / n, (t5 - t4) / n, (t6 - t5) / n));
+			}
+		} finally {
+			executor.shutdown();
+		}
+		if (sink == 0)
+			System.out.println();
+	}
+}
@@ -0,0 +1,216 @@
+package org.sonardrone.navigator.sim;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import org.sonardrone.navigator.Navigator;
+import org.sonardrone.navigator.PurePursuit;
+
+/**
+ * Compares PurePursuit with the earlier array based pure pursuit of
+ * Navigator, on random positions and headings around random legs. Checks
+ * that both give the same turn-rate and goal point, and prints the time
+ * and the bytes allocated per call. Allocations are read from the thread
+ * bean of the JVM, where it is available.
+ *
+ * Usage: PurePursuitBenchmark [calls] [rounds]
+ */
+public class PurePursuitBenchmark {
+	private static final double LOOK_AHEAD = 10;
+	private static final double MIN_LOOK_AHEAD = 2;
+	private static final double MIN_TURN_RADIUS = 10;
+
+	// keeps the results alive
+	private static double sink = 0;
+
+	public static void main(String[] args) throws Exception {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		// vehicle near a leg of up to 200 m
+		Random random = new Random(1);
+		double[][] lwp = new double[calls][];
+		double[][] cwp = new double[calls][];
+		double[] tick = new double[4 * calls];
+		for (int i = 0; i < calls; i++) {
+			lwp[i] = new double[] { 400 * random.nextDouble(),
+					400 * random.nextDouble() };
+			cwp[i] = new double[] { lwp[i][0] + 200 * random.nextGaussian(),
+					lwp[i][1] + 200 * random.nextGaussian() };
+			double f = random.nextDouble();
+			tick[4 * i] = lwp[i][0] + f * (cwp[i][0] - lwp[i][0]) + 20
+					* random.nextGaussian();
+			tick[4 * i + 1] = lwp[i][1] + f * (cwp[i][1] - lwp[i][1]) + 20
+					* random.nextGaussian();
+			tick[4 * i + 2] = 2 * Math.PI * random.nextDouble();
+			tick[4 * i + 3] = 3 * random.nextDouble();
+		}
+
+		PurePursuit pursuit = new PurePursuit();
+		pursuit.configure(LOOK_AHEAD, MIN_LOOK_AHEAD, MIN_TURN_RADIUS);
+		double[] goal = new double[2];
+		int mismatches = 0;
+		for (int i = 0; i < calls; i++) {
+			double x = tick[4 * i], y = tick[4 * i + 1];
+			double phi = tick[4 * i + 2], V = tick[4 * i + 3];
+			goal[0] = goal[1] = Double.NaN;
+			double expected = reference(x, y, phi, V, lwp[i], cwp[i], goal);
+			double turnRate = pursuit.turnRate(x, y, phi, V, lwp[i], cwp[i]);
+			if (Double.doubleToLongBits(expected) != Double
+					.doubleToLongBits(turnRate)
+					|| pursuit.hasGeometry() == Double.isNaN(goal[0])
+					|| (pursuit.hasGeometry() && (goal[0] != pursuit
+							.getGoalX() || goal[1] != pursuit.getGoalY())))
+				mismatches++;
+		}
+		System.out.println(String.format(
+				"%d of %d calls differ from the array based controller",
+				mismatches, calls));
+
+		System.out.println("Round\tarrays [ns]\tarrays [B]\tPurePursuit [ns]"
+				+ "\tPurePursuit [B]");
+		for (int r = 0; r < rounds; r++) {
+			long b0 = allocatedBytes();
+			long t0 = System.nanoTime();
+			for (int i = 0; i < calls; i++)
+				sink += reference(tick[4 * i], tick[4 * i + 1],
+						tick[4 * i + 2], tick[4 * i + 3], lwp[i], cwp[i], goal);
+			long t1 = System.nanoTime();
+			long b1 = allocatedBytes();
+			for (int i = 0; i < calls; i++)
+				sink += pursuit.turnRate(tick[4 * i], tick[4 * i + 1],
+						tick[4 * i + 2], tick[4 * i + 3], lwp[i], cwp[i]);
+			long t2 = System.nanoTime();
+			long b2 = allocatedBytes();
+			double n = calls;
+			System.out.println(String.format("%d\t%.0f\t%s\t%.0f\t%s", r,
+					(t1 - t0) / n, perCall(b1 - b0, calls), (t2 - t1) / n,
+					perCall(b2 - b1, calls)));
+		}
+		if (sink == 0)
+			System.out.println();
+	}
+
+	private static String perCall(long bytes, int calls) {
+		if (bytes < 0)
+			return "n/a";
+		return String.format("%.1f", bytes / (double) calls);
+	}
+
+	// bytes allocated by this thread, or -1 if the JVM does not tell
+	private static long allocatedBytes() {
+		try {
+			Class<?> factory = Class
+					.forName("java.lang.management.ManagementFactory");
+			Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+			Method m = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) m.invoke(bean, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * The pure pursuit of Navigator before PurePursuit, with a new array for
+	 * each transformed point. The goal point is written to goal, or left as
+	 * it is if the maximum turn-rate is returned.
+	 */
+	private static double reference(double x, double y, double phi, double V,
+			double[] lwp, double[] cwp, double[] goalNav) {
+		double[] pos = { x, y };
+		double[] lwpb = nav2body(lwp, pos, phi);
+		double[] cwpb = nav2body(cwp, pos, phi);
+		double[] posb = nav2body(pos, pos, phi);
+
+		double targetAngle = Math.atan2(cwpb[1], cwpb[0]) - Math.PI / 2.0;
+		if (targetAngle > Math.PI)
+			targetAngle -= 2 * Math.PI;
+		if (targetAngle < -1 * Math.PI)
+			targetAngle += 2 * Math.PI;
+		if (Math.abs(targetAngle) > 0.5 * Math.PI) {
+			double maxTurnRate = V / MIN_TURN_RADIUS;
+			return -1 * maxTurnRate * Math.signum(targetAngle);
+		}
+		double[] v = Navigator.minus(lwpb, cwpb);
+		double[] w = Navigator.minus(lwpb, posb);
+		double bmag = Navigator.dot(w, v) / Navigator.mag(v);
+		double bnorm = bmag / Navigator.mag(v);
+		double[] b = new double[2];
+		b[0] = lwpb[0] + bnorm * v[0];
+		b[1] = lwpb[1] + bnorm * v[1];
+
+		double Lcwp = Navigator.mag(Navigator.minus(posb, cwpb));
+		double Lerr = Navigator.mag(Navigator.minus(posb, b));
+		double Ladapt = Math.max(MIN_LOOK_AHEAD,
+				Math.min(Lerr + LOOK_AHEAD, Lcwp));
+
+		double[] goal = findGoalPoint(0, 0, Ladapt, lwpb, cwpb, b);
+		double xg = Math.abs(goal[0]);
+		double turnDirection = Math.signum(goal[0]);
+		double curvature = 2 * xg / Math.pow(Ladapt, 2);
+		double new_turn_rate = curvature * V * turnDirection;
+		double radius = 1 / curvature;
+		double[] centre = new double[2];
+		centre[0] = posb[0] + radius * (b[0] - posb[0]) / xg;
+		centre[1] = posb[1] + radius * (b[1] - posb[1]) / xg;
+
+		b = body2nav(b, pos, phi);
+		centre = body2nav(centre, pos, phi);
+		goal = body2nav(goal, pos, phi);
+		double[] dir = { 0, 1.0 };
+		dir = body2nav(dir, pos, phi);
+		goalNav[0] = goal[0];
+		goalNav[1] = goal[1];
+		return new_turn_rate;
+	}
+
+	private static double[] findGoalPoint(double cx, double cy, double radius,
+			double[] point1, double[] point2, double[] b) {
+		double dx, dy, A, B, C, det, t;
+		dx = point2[0] - point1[0];
+		dy = point2[1] - point1[1];
+		A = dx * dx + dy * dy;
+		B = 2 * (dx * (point1[0] - cx) + dy * (point1[1] - cy));
+		C = (point1[0] - cx) * (point1[0] - cx) + (point1[1] - cy)
+				* (point1[1] - cy) - radius * radius;
+		det = B * B - 4 * A * C;
+		if ((A <= 0.0000001) || (det < 0)) {
+			return null;
+		} else if (det == 0) {
+			t = -B / (2 * A);
+			double[] intersection1 = { point1[0] + t * dx, point1[1] + t * dy };
+			return intersection1;
+		} else {
+			t = (-1 * B + Math.sqrt(det)) / (2 * A);
+			double[] intersection1 = { point1[0] + t * dx, point1[1] + t * dy };
+			if ((intersection1[0] > b[0] && intersection1[0] <= point2[0])
+					|| (intersection1[0] < b[0] && intersection1[0] >= point2[0])) {
+				return intersection1;
+			} else {
+				t = (-1 * B - Math.sqrt(det)) / (2 * A);
+				double[] intersection2 = { point1[0] + t * dx,
+						point1[1] + t * dy };
+				return intersection2;
+			}
+		}
+	}
+
+	private static double[] nav2body(double[] vec, double[] pos, double phi) {
+		double[] bfvec = new double[2];
+		bfvec[0] = Math.cos(phi) * (vec[0] - pos[0]) - Math.sin(phi)
+				* (vec[1] - pos[1]);
+		bfvec[1] = Math.sin(phi) * (vec[0] - pos[0]) + Math.cos(phi)
+				* (vec[1] - pos[1]);
+		return bfvec;
+	}
+
+	private static double[] body2nav(double[] vec, double[] pos, double phi) {
+		double[] nfvec = new double[2];
+		nfvec[0] = Math.cos(-1 * phi) * vec[0] - Math.sin(-1 * phi) * vec[1];
+		nfvec[1] = Math.sin(-1 * phi) * vec[0] + Math.cos(-1 * phi) * vec[1];
+		nfvec[0] = nfvec[0] + pos[0];
+		nfvec[1] = nfvec[1] + pos[1];
+		return nfvec;
+	}
+}
@@ -0,0 +1,228 @@
+package org.sonardrone.navigator.sim;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sonardrone.SettingsTemplate;
+import org.sonardrone.navigator.NavStorage;
+import org.sonardrone.navigator.TelemetryWriter;
+import org.sonardrone.navigator.TextLogFormat;
+import org.sonardrone.navigator.WaypointReader;
+import org.sonardrone.navigator.Waypoints;
+
+/**
+ * Project storage for off-device simulations. Settings start from the
+ * default settings template and are overridden by settings.rf in the
+ * project directory, if there is one. Waypoints are read from
+ * waypoints.txt and logs are written to the same files as on the device.
+ * Without a project directory, nothing is read or written and waypoints are
+ * given with setWaypoints.
+ */
+public class SimStorage implements NavStorage {
+	private static final String SETTINGS_FILE_NAME = "settings.rf";
+	private static final String NAVLOG_FILE_NAME = "nav.log";
+	private static final String MEASLOG_FILE_NAME = "meas.log";
+	private static final String STATELOG_FILE_NAME = "state.rf";
+	private static final String WAYPOINT_FILE_NAME = "waypoints.txt";
+	private static final String TELEMETRY_FILE_NAME = "telemetry.bin";
+
+	private final File projectDir;
+	private File logDir;
+	private final Map<String, String> parameters = new HashMap<String, String>();
+	private Waypoints waypoints = null;
+	private BufferedWriter navlog;
+	private BufferedWriter statelog;
+	private BufferedWriter measlog;
+	private TelemetryWriter telemetry;
+
+	public SimStorage() {
+		this.projectDir = null;
+		this.readSettings(new BufferedReader(new StringReader(
+				SettingsTemplate.TEXT)));
+	}
+
+	public SimStorage(File projectDir) throws IOException {
+		this.projectDir = projectDir;
+		this.logDir = projectDir;
+		this.readSettings(new BufferedReader(new StringReader(
+				SettingsTemplate.TEXT)));
+		File rf = new File(projectDir, SETTINGS_FILE_NAME);
+		if (rf.exists())
+			this.readSettings(new BufferedReader(new FileReader(rf)));
+	}
+
+	/**
+	 * Storage with the settings and waypoints of template, without a project
+	 * directory
+	 */
+	public SimStorage(SimStorage template) {
+		this.projectDir = null;
+		this.parameters.putAll(template.parameters);
+		this.waypoints = template.waypoints;
+	}
+
+	private void readSettings(BufferedReader reader) {
+		try {
+			String row;
+			while ((row = reader.readLine()) != null) {
+				if (row.startsWith("#") || row.trim().length() == 0)
+					continue;
+				String[] keyValuePair = row.split(":");
+				this.parameters.put(keyValuePair[0].trim(),
+						keyValuePair[1].trim());
+			}
+			reader.close();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read settings", e);
+		}
+	}
+
+	/**
+	 * Writes the logs to dir instead of the project directory
+	 */
+	public void setLogDir(File dir) {
+		this.logDir = dir;
+	}
+
+	/**
+	 * Opens the logs in the log directory, overwriting earlier logs
+	 */
+	public void initLogs() {
+		if (this.logDir == null)
+			return;
+		try {
+			this.navlog = new BufferedWriter(new FileWriter(new File(
+					this.logDir, NAVLOG_FILE_NAME)));
+			this.statelog = new BufferedWriter(new FileWriter(new File(
+					this.logDir, STATELOG_FILE_NAME)));
+			this.measlog = new BufferedWriter(new FileWriter(new File(
+					this.logDir, MEASLOG_FILE_NAME)));
+			if (this.containsKey("binaryLogSwitch")
+					&& this.getParameterAsBoolean("binaryLogSwitch"))
+				this.telemetry = new TelemetryWriter(new File(
+						this.logDir, TELEMETRY_FILE_NAME), false);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not open logs", e);
+		}
+	}
+
+	public void setParameter(String key, String value) {
+		this.parameters.put(key, value);
+	}
+
+	public void setWaypoints(Waypoints waypoints) {
+		this.waypoints = waypoints;
+	}
+
+	public boolean containsKey(String key) {
+		return this.parameters.containsKey(key);
+	}
+
+	public double getParameterAsDouble(String par) {
+		return Double.valueOf(this.parameters.get(par));
+	}
+
+	public int getParameterAsInt(String par) {
+		return Integer.valueOf(this.parameters.get(par));
+	}
+
+	public boolean getParameterAsBoolean(String par) {
+		return Boolean.valueOf(this.parameters.get(par));
+	}
+
+	public String getParameterAsString(String par) {
+		return this.parameters.get(par);
+	}
+
+	public void setInt(String key, int value) {
+		this.parameters.put(key, String.valueOf(value));
+	}
+
+	public boolean settings_updated() {
+		return false;
+	}
+
+	public void write() {
+		// settings are never written back by a simulation
+	}
+
+	public void log(String logName, String logStr) {
+		BufferedWriter writer = null;
+		if (logName.equals("nav"))
+			writer = this.navlog;
+		else if (logName.equals("state"))
+			writer = this.statelog;
+		else if (logName.equals("meas"))
+			writer = this.measlog;
+		if (writer == null)
+			return;
+		try {
+			writer.write(logStr);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write to log "
+					+ logName, e);
+		}
+	}
+
+	public void logRecord(byte type, long time, double[] values) {
+		try {
+			if (this.telemetry != null)
+				this.telemetry.write(type, time, values);
+			else if (this.navlog != null)
+				TextLogFormat.write(type, time, values, this.navlog,
+						this.statelog, this.measlog);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write telemetry", e);
+		}
+	}
+
+	public Waypoints read_waypoints() {
+		if (this.waypoints != null)
+			return new Waypoints(this.waypoints);
+		if (this.projectDir == null)
+			return new Waypoints();
+		try {
+			return WaypointReader.read(new File(this.projectDir,
+					WAYPOINT_FILE_NAME));
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read waypoint file", e);
+		}
+	}
+
+	public void flush() {
+		try {
+			if (this.navlog != null)
+				this.navlog.flush();
+			if (this.statelog != null)
+				this.statelog.flush();
+			if (this.measlog != null)
+				this.measlog.flush();
+			if (this.telemetry != null)
+				this.telemetry.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not flush logs", e);
+		}
+	}
+
+	public void close() {
+		try {
+			if (this.navlog != null)
+				this.navlog.close();
+			if (this.statelog != null)
+				this.statelog.close();
+			if (this.measlog != null)
+				this.measlog.close();
+			if (this.telemetry != null)
+				this.telemetry.close();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not close logs", e);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.sonardrone.navigator.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sonardrone.navigator.NavClock;
+
+/**
+ * Clock for off-device simulations. Time only moves when the navigator
+ * sleeps, and then jumps directly to the wake-up time. Simulated sensors are
+ * scheduled as tasks that are run at their due time while the clock is
+ * advanced.
+ */
+public class SimulatedClock implements NavClock {
+	private long time;
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	private static class Task {
+		final Runnable runnable;
+		final long period;
+		long due;
+
+		Task(Runnable runnable, long due, long period) {
+			this.runnable = runnable;
+			this.due = due;
+			this.period = period;
+		}
+	}
+
+	public SimulatedClock(long startTime) {
+		this.time = startTime;
+	}
+
+	public long currentTimeMillis() {
+		return this.time;
+	}
+
+	public long nanoTime() {
+		return this.time * 1000000L;
+	}
+
+	public void sleep(long millis) {
+		if (millis > 0)
+			this.advanceTo(this.time + millis);
+	}
+
+	/**
+	 * Run task after delay milliseconds of simulated time, and then every
+	 * period milliseconds. A period <= 0 runs the task once.
+	 */
+	public void schedule(Runnable task, long delay, long period) {
+		this.tasks.add(new Task(task, this.time + delay, period));
+	}
+
+	private void advanceTo(long until) {
+		while (true) {
+			Task next = null;
+			for (int i = 0; i < this.tasks.size(); i++) {
+				Task t = this.tasks.get(i);
+				if (t.due <= until && (next == null || t.due < next.due))
+					next = t;
+			}
+			if (next == null)
+				break;
+			this.time = next.due;
+			if (next.period > 0)
+				next.due += next.period;
+			else
+				this.tasks.remove(next);
+			next.runnable.run();
+		}
+		this.time = until;
+	}
+}
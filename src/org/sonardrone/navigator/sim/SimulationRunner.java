@@ -0,0 +1,176 @@
+package org.sonardrone.navigator.sim;
+
+import static java.lang.Math.atan2;
+import static java.lang.Math.sqrt;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.sonardrone.navigator.NavLog;
+import org.sonardrone.navigator.Navigator;
+import org.sonardrone.navigator.Waypoints;
+
+/**
+ * Runs the navigator in simulator mode on a plain JVM. The navigation loop
+ * runs against a SimulatedClock, so a survey is simulated as fast as the
+ * filter and controller can be evaluated. GPS and compass readings are fed
+ * to the navigator by tasks on the simulated clock, in the same way as the
+ * broadcasts from NavigatorService on the device.
+ *
+ * Usage: SimulationRunner projectDir [maxHours]
+ * where projectDir contains waypoints.txt and optionally settings.rf
+ */
+public class SimulationRunner {
+	private static final String TAG = "SimulationRunner";
+
+	// sensor update periods in simulated milliseconds
+	public long gpsPeriod = 1000;
+	public long compassPeriod = 500;
+	public float gpsAccuracy = 3;
+	// age of the GPS fixes when they are delivered, as on the phones
+	public long gpsLatency = 0;
+	// age of the compass readings, negative ages stamp them after their
+	// delivery, as from a sensor clock that is ahead
+	public long compassLatency = 0;
+
+	private final SimulatedClock clock;
+	private final NavLog log;
+	private final SimStorage storage;
+	private final Navigator nav;
+	private double[] startPos = null;
+	private double startHeading = 0;
+	private double startSpeed = 3.0;
+	private boolean timedOut = false;
+	private long simulatedMillis = 0;
+
+	public SimulationRunner(SimStorage storage, NavLog log) {
+		this.clock = new SimulatedClock(0);
+		this.log = log;
+		this.storage = storage;
+		this.nav = new Navigator(this.clock, log, storage);
+	}
+
+	public Navigator getNavigator() {
+		return this.nav;
+	}
+
+	public SimulatedClock getClock() {
+		return this.clock;
+	}
+
+	/**
+	 * Set start position and heading (radians, clockwise from north). If not
+	 * set, the boat starts 2 * tolerance before the first waypoint, heading
+	 * along the first leg of the route.
+	 */
+	public void setStart(double x, double y, double heading, double speed) {
+		this.startPos = new double[] { x, y };
+		this.startHeading = heading;
+		this.startSpeed = speed;
+	}
+
+	private void initStart(Waypoints wp) {
+		if (this.startPos != null)
+			return;
+		double[] first = wp.get(0);
+		double dx = 0;
+		double dy = 1;
+		if (wp.size() > 1) {
+			dx = wp.getX(1) - first[0];
+			dy = wp.getY(1) - first[1];
+			double len = sqrt(dx * dx + dy * dy);
+			if (len > 0) {
+				dx /= len;
+				dy /= len;
+			} else {
+				dx = 0;
+				dy = 1;
+			}
+		}
+		double offset = 2 * this.nav.tolerance;
+		this.startPos = new double[] { first[0] - dx * offset,
+				first[1] - dy * offset };
+		this.startHeading = atan2(dx, dy);
+	}
+
+	/**
+	 * Simulates the route until the last waypoint is reached or maxMillis of
+	 * simulated time has passed.
+	 *
+	 * @return true if the route was completed
+	 */
+	public boolean run(long maxMillis) {
+		this.nav.readResources();
+		this.nav.simulator = true;
+		this.nav.setWaypoints();
+
+		Waypoints wp = this.storage.read_waypoints();
+		if (wp.isEmpty()) {
+			this.log.e(TAG, "No waypoints to simulate");
+			return false;
+		}
+		this.initStart(wp);
+		this.nav.set_pos(this.startPos);
+		this.nav.set_phi(this.startHeading);
+		this.nav.set_V(this.startSpeed);
+		// done by initGPS on the device
+		this.nav.lastVelPos = this.nav.pos();
+
+		this.nav.initTime();
+		this.nav.initNavigation();
+		this.nav.init_sim_state();
+
+		this.clock.schedule(new Runnable() {
+			public void run() {
+				double[] pos = nav.pos();
+				nav.postGPS(pos[0], pos[1], nav.getNavTime() - gpsLatency,
+						gpsAccuracy);
+			}
+		}, this.gpsPeriod, this.gpsPeriod);
+		this.clock.schedule(new Runnable() {
+			public void run() {
+				nav.postCompass(nav.phi(), nav.getNavTime() - compassLatency);
+			}
+		}, this.compassPeriod, this.compassPeriod);
+		this.clock.schedule(new Runnable() {
+			public void run() {
+				timedOut = true;
+				nav.setActive(false);
+			}
+		}, maxMillis, 0);
+
+		long start = this.clock.currentTimeMillis();
+		this.nav.run();
+		this.simulatedMillis = this.clock.currentTimeMillis() - start;
+		this.nav.finish();
+		return !this.timedOut;
+	}
+
+	public long getSimulatedMillis() {
+		return this.simulatedMillis;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SimulationRunner projectDir [maxHours]");
+			System.exit(1);
+		}
+		double maxHours = 2;
+		if (args.length > 1)
+			maxHours = Double.parseDouble(args[1]);
+
+		SimStorage storage = new SimStorage(new File(args[0]));
+		storage.initLogs();
+		SimulationRunner runner = new SimulationRunner(storage,
+				new ConsoleNavLog(false));
+
+		long wallStart = System.currentTimeMillis();
+		boolean completed = runner.run((long) (maxHours * 3600 * 1000));
+		long wallTime = System.currentTimeMillis() - wallStart;
+
+		System.out.println(String.format(
+				"Route %s after %.1f s simulated time, %.1f s wall time",
+				completed ? "completed" : "not completed",
+				runner.getSimulatedMillis() / 1000.0, wallTime / 1000.0));
+	}
+}
@@ -0,0 +1,98 @@
+package org.sonardrone.navigator.sim;
+
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.Random;
+
+import org.sonardrone.proj.positions.WGS84Parser;
+import org.sonardrone.proj.positions.WGS84Position;
+import org.sonardrone.proj.positions.WGS84Position.WGS84Format;
+
+/**
+ * Compares parsing of position strings with the WGS84Position constructor
+ * and with WGS84Parser, for each WGS84Format. Checks that both give the
+ * same coordinates and prints the time per position, for single strings
+ * and for a whole file parsed with parseAll.
+ *
+ * Usage: WGS84ParserBenchmark [positions] [rounds]
+ */
+public class WGS84ParserBenchmark {
+	// keeps the results alive
+	private static double sink = 0;
+
+	public static void main(String[] args) throws ParseException,
+			java.io.IOException {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Random random = new Random(1);
+		System.out.println("Format\tround\tconstructor [ns]\tparser [ns]"
+				+ "\tparseAll [ns]");
+		for (WGS84Format format : WGS84Format.values()) {
+			String[] lines = new String[positions];
+			StringBuilder file = new StringBuilder();
+			for (int i = 0; i < positions; i++) {
+				lines[i] = format(format, 55 + 14 * random.nextDouble(),
+						11 + 13 * random.nextDouble());
+				file.append(lines[i]).append('\n');
+			}
+			String text = file.toString();
+
+			WGS84Parser parser = new WGS84Parser(format);
+			double[] lat_lon = new double[2];
+			int mismatches = 0;
+			double[] all = parser.parseAll(new StringReader(text));
+			for (int i = 0; i < positions; i++) {
+				WGS84Position p = new WGS84Position(lines[i], format);
+				parser.parse(lines[i], 0, lines[i].length(), lat_lon);
+				if (p.getLatitude() != lat_lon[0]
+						|| p.getLongitude() != lat_lon[1]
+						|| all[2 * i] != lat_lon[0]
+						|| all[2 * i + 1] != lat_lon[1])
+					mismatches++;
+			}
+			if (mismatches > 0)
+				System.out.println(String.format(
+						"%s: %d positions differ from WGS84Position", format,
+						mismatches));
+
+			for (int r = 0; r < rounds; r++) {
+				long t0 = System.nanoTime();
+				for (int i = 0; i < positions; i++)
+					sink += new WGS84Position(lines[i], format).getLatitude();
+				long t1 = System.nanoTime();
+				for (int i = 0; i < positions; i++) {
+					parser.parse(lines[i], 0, lines[i].length(), lat_lon);
+					sink += lat_lon[0];
+				}
+				long t2 = System.nanoTime();
+				sink += parser.parseAll(new StringReader(text))[0];
+				long t3 = System.nanoTime();
+				double n = positions;
+				System.out.println(String.format("%s\t%d\t%.0f\t%.0f\t%.0f",
+						format, r, (t1 - t0) / n, (t2 - t1) / n, (t3 - t2) / n));
+			}
+		}
+		if (sink == 0)
+			System.out.println();
+	}
+
+	// position string as written by survey plans
+	private static String format(WGS84Format format, double lat, double lon) {
+		if (format == WGS84Format.Degrees)
+			return String.format(Locale.US, "%.7f %.7f", lat, lon);
+		double latDeg = Math.floor(lat);
+		double lonDeg = Math.floor(lon);
+		double latMin = (lat - latDeg) * 60;
+		double lonMin = (lon - lonDeg) * 60;
+		if (format == WGS84Format.DegreesMinutes)
+			return String.format(Locale.US, "N %.0fº %.5f' E %.0fº %.5f'",
+					latDeg, latMin, lonDeg, lonMin);
+		double latSec = (latMin - Math.floor(latMin)) * 60;
+		double lonSec = (lonMin - Math.floor(lonMin)) * 60;
+		return String.format(Locale.US,
+				"N %.0fº %.0f' %.4f\" E %.0fº %.0f' %.4f\"", latDeg,
+				Math.floor(latMin), latSec, lonDeg, Math.floor(lonMin), lonSec);
+	}
+}
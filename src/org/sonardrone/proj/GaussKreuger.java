@@ -1,5 +1,12 @@
 package org.sonardrone.proj;
 
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 /**
  * Java-implementation of "Gauss Conformal Projection (Transverse Mercator),
  * Krügers Formulas". - Parameters for SWEREF99 lat-long to/from RT90 and
@@ -15,8 +22,12 @@ package org.sonardrone.proj;
  * http://github.com/goober/
  * 
  * License: http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * 
+ * Besides single points, packed arrays and buffers of points can be
+ * converted in one call, optionally split over an ExecutorService.
  * */
 public class GaussKreuger {
+	private static final double DEG_TO_RAD = Math.PI / 180.0;
 
 	double axis; // Semi-major axis of the ellipsoid.
 	double flattening; // Flattening of the ellipsoid.
@@ -25,6 +36,61 @@ public class GaussKreuger {
 	double false_northing; // Offset for origo.
 	double false_easting; // Offset for origo.
 
+	// Constants derived from the parameters above, see prepare().
+	private double e2, n, a_roof, lambda_zero, scale_a_roof;
+	private double A, B, C, D;
+	private double beta1, beta2, beta3, beta4;
+	private double delta1, delta2, delta3, delta4;
+	private double Astar, Bstar, Cstar, Dstar;
+
+	// Parameters can not be changed, the instance may be shared.
+	private boolean fixed = false;
+	// Grid coordinates are not rounded to mm.
+	private boolean full_precision = false;
+
+	public GaussKreuger() {
+	}
+
+	/**
+	 * Projection with fixed parameters, that can be shared between threads.
+	 * 
+	 * @param projection
+	 *            projection name, see swedish_params
+	 */
+	public GaussKreuger(String projection) {
+		this(projection, false);
+	}
+
+	/**
+	 * Projection with fixed parameters, that can be shared between threads.
+	 * 
+	 * @param projection
+	 *            projection name, see swedish_params
+	 * @param fullPrecision
+	 *            grid coordinates are not rounded to mm
+	 */
+	public GaussKreuger(String projection, boolean fullPrecision) {
+		swedish_params(projection);
+		full_precision = fullPrecision;
+		fixed = true;
+	}
+
+	/**
+	 * Grid coordinates are rounded to mm by default. Without rounding the
+	 * conversion is faster, and differences between nearby points, e.g.
+	 * consecutive GPS fixes, keep their full resolution.
+	 */
+	public void setFullPrecision(boolean fullPrecision) {
+		if (fixed)
+			throw new IllegalStateException(
+					"Parameters of a shared projection can not be changed");
+		full_precision = fullPrecision;
+	}
+
+	public boolean isFullPrecision() {
+		return full_precision;
+	}
+
 	// Parameters for RT90 and SWEREF99TM.
 	// Note: Parameters for RT90 are choosen to eliminate the
 	// differences between Bessel and GRS80-ellipsoides.
@@ -32,6 +98,9 @@ public class GaussKreuger {
 	// RT90-lat/long based on the Bessel ellipsoide (from old maps).
 	// Parameter: projection (string). Must match if-statement.
 	public void swedish_params(String projection) {
+		if (fixed)
+			throw new IllegalStateException(
+					"Parameters of a shared projection can not be changed");
 		// RT90 parameters, GRS 80 ellipsoid.
 		if (projection.equals("rt90_7.5_gon_v")) {
 			grs80_params();
@@ -134,6 +203,39 @@ public class GaussKreuger {
 		} else {
 			central_meridian = Double.MIN_VALUE;
 		}
+		prepare();
+	}
+
+	// Ellipsoid-based constants used by the conversions.
+	private void prepare() {
+		e2 = flattening * (2.0 - flattening);
+		n = flattening / (2.0 - flattening);
+		a_roof = axis / (1.0 + n) * (1.0 + n * n / 4.0 + n * n * n * n / 64.0);
+		scale_a_roof = scale * a_roof;
+		lambda_zero = central_meridian * DEG_TO_RAD;
+
+		A = e2;
+		B = (5.0 * e2 * e2 - e2 * e2 * e2) / 6.0;
+		C = (104.0 * e2 * e2 * e2 - 45.0 * e2 * e2 * e2 * e2) / 120.0;
+		D = (1237.0 * e2 * e2 * e2 * e2) / 1260.0;
+		beta1 = n / 2.0 - 2.0 * n * n / 3.0 + 5.0 * n * n * n / 16.0 + 41.0
+				* n * n * n * n / 180.0;
+		beta2 = 13.0 * n * n / 48.0 - 3.0 * n * n * n / 5.0 + 557.0 * n * n
+				* n * n / 1440.0;
+		beta3 = 61.0 * n * n * n / 240.0 - 103.0 * n * n * n * n / 140.0;
+		beta4 = 49561.0 * n * n * n * n / 161280.0;
+
+		delta1 = n / 2.0 - 2.0 * n * n / 3.0 + 37.0 * n * n * n / 96.0 - n
+				* n * n * n / 360.0;
+		delta2 = n * n / 48.0 + n * n * n / 15.0 - 437.0 * n * n * n * n
+				/ 1440.0;
+		delta3 = 17.0 * n * n * n / 480.0 - 37 * n * n * n * n / 840.0;
+		delta4 = 4397.0 * n * n * n * n / 161280.0;
+		Astar = e2 + e2 * e2 + e2 * e2 * e2 + e2 * e2 * e2 * e2;
+		Bstar = -(7.0 * e2 * e2 + 17.0 * e2 * e2 * e2 + 30.0 * e2 * e2 * e2
+				* e2) / 6.0;
+		Cstar = (224.0 * e2 * e2 * e2 + 889.0 * e2 * e2 * e2 * e2) / 120.0;
+		Dstar = -(4279.0 * e2 * e2 * e2 * e2) / 1260.0;
 	}
 
 	// Sets of default parameters.
@@ -161,126 +263,258 @@ public class GaussKreuger {
 		false_easting = 150000.0;
 	}
 
+	// Points per task when converting in parallel.
+	private static final int PARALLEL_CHUNK = 8192;
+
 	// Conversion from geodetic coordinates to grid coordinates.
 	public double[] geodetic_to_grid(double latitude, double longitude) {
+		return geodetic_to_grid(latitude, longitude, new double[2]);
+	}
+
+	/**
+	 * Conversion from geodetic coordinates to grid coordinates, without
+	 * allocation.
+	 * 
+	 * @param x_y
+	 *            array of at least two elements for x (north) and y (east)
+	 * @return x_y
+	 */
+	public double[] geodetic_to_grid(double latitude, double longitude,
+			double[] x_y) {
+		to_grid(latitude, longitude, x_y, 0);
+		return x_y;
+	}
+
+	/**
+	 * Conversion of packed points from geodetic coordinates to grid
+	 * coordinates. The source holds latitude, longitude pairs and the
+	 * destination gets x, y pairs; they may be the same array.
+	 * 
+	 * @param count
+	 *            number of points
+	 */
+	public void geodetic_to_grid(double[] src, int srcOffset, double[] dst,
+			int dstOffset, int count) {
+		for (int i = 0; i < count; i++) {
+			int s = srcOffset + 2 * i;
+			to_grid(src[s], src[s + 1], dst, dstOffset + 2 * i);
+		}
+	}
+
+	/**
+	 * Conversion of the remaining latitude, longitude pairs of src to x, y
+	 * pairs in dst. The positions of both buffers are advanced.
+	 */
+	public void geodetic_to_grid(DoubleBuffer src, DoubleBuffer dst) {
 		double[] x_y = new double[2];
+		while (src.remaining() >= 2) {
+			double latitude = src.get();
+			double longitude = src.get();
+			to_grid(latitude, longitude, x_y, 0);
+			dst.put(x_y[0]);
+			dst.put(x_y[1]);
+		}
+	}
+
+	/**
+	 * Conversion of packed points from geodetic coordinates to grid
+	 * coordinates, split in tasks run by the executor. Returns when all
+	 * points are converted.
+	 * 
+	 * @see #geodetic_to_grid(double[], int, double[], int, int)
+	 */
+	public void geodetic_to_grid(final double[] src, final double[] dst,
+			int count, ExecutorService executor) throws InterruptedException {
+		convert(true, src, dst, count, executor);
+	}
 
-		// Prepare ellipsoid-based stuff.
-		double e2 = flattening * (2.0 - flattening);
-		double n = flattening / (2.0 - flattening);
-		double a_roof = axis / (1.0 + n)
-				* (1.0 + n * n / 4.0 + n * n * n * n / 64.0);
-		double A = e2;
-		double B = (5.0 * e2 * e2 - e2 * e2 * e2) / 6.0;
-		double C = (104.0 * e2 * e2 * e2 - 45.0 * e2 * e2 * e2 * e2) / 120.0;
-		double D = (1237.0 * e2 * e2 * e2 * e2) / 1260.0;
-		double beta1 = n / 2.0 - 2.0 * n * n / 3.0 + 5.0 * n * n * n / 16.0
-				+ 41.0 * n * n * n * n / 180.0;
-		double beta2 = 13.0 * n * n / 48.0 - 3.0 * n * n * n / 5.0 + 557.0 * n
-				* n * n * n / 1440.0;
-		double beta3 = 61.0 * n * n * n / 240.0 - 103.0 * n * n * n * n / 140.0;
-		double beta4 = 49561.0 * n * n * n * n / 161280.0;
-
-		// Convert.
-		double deg_to_rad = Math.PI / 180.0;
-		double phi = latitude * deg_to_rad;
-		double lambda = longitude * deg_to_rad;
-		double lambda_zero = central_meridian * deg_to_rad;
-
-		double phi_star = phi
-				- Math.sin(phi)
-				* Math.cos(phi)
-				* (A + B * Math.pow(Math.sin(phi), 2) + C
-						* Math.pow(Math.sin(phi), 4) + D
-						* Math.pow(Math.sin(phi), 6));
-		double delta_lambda = lambda - lambda_zero;
+	// Conversion from grid coordinates to geodetic coordinates.
+	public double[] grid_to_geodetic(double x, double y) {
+		return grid_to_geodetic(x, y, new double[2]);
+	}
+
+	/**
+	 * Conversion from grid coordinates to geodetic coordinates, without
+	 * allocation.
+	 * 
+	 * @param lat_lon
+	 *            array of at least two elements for latitude and longitude
+	 * @return lat_lon
+	 */
+	public double[] grid_to_geodetic(double x, double y, double[] lat_lon) {
+		to_geodetic(x, y, lat_lon, 0);
+		return lat_lon;
+	}
+
+	/**
+	 * Conversion of packed points from grid coordinates to geodetic
+	 * coordinates. The source holds x, y pairs and the destination gets
+	 * latitude, longitude pairs; they may be the same array.
+	 * 
+	 * @param count
+	 *            number of points
+	 */
+	public void grid_to_geodetic(double[] src, int srcOffset, double[] dst,
+			int dstOffset, int count) {
+		for (int i = 0; i < count; i++) {
+			int s = srcOffset + 2 * i;
+			to_geodetic(src[s], src[s + 1], dst, dstOffset + 2 * i);
+		}
+	}
+
+	/**
+	 * Conversion of the remaining x, y pairs of src to latitude, longitude
+	 * pairs in dst. The positions of both buffers are advanced.
+	 */
+	public void grid_to_geodetic(DoubleBuffer src, DoubleBuffer dst) {
+		double[] lat_lon = new double[2];
+		while (src.remaining() >= 2) {
+			double x = src.get();
+			double y = src.get();
+			to_geodetic(x, y, lat_lon, 0);
+			dst.put(lat_lon[0]);
+			dst.put(lat_lon[1]);
+		}
+	}
+
+	/**
+	 * Conversion of packed points from grid coordinates to geodetic
+	 * coordinates, split in tasks run by the executor.
+	 * 
+	 * @see #grid_to_geodetic(double[], int, double[], int, int)
+	 */
+	public void grid_to_geodetic(final double[] src, final double[] dst,
+			int count, ExecutorService executor) throws InterruptedException {
+		convert(false, src, dst, count, executor);
+	}
+
+	private void convert(final boolean toGrid, final double[] src,
+			final double[] dst, int count, ExecutorService executor)
+			throws InterruptedException {
+		if (count <= PARALLEL_CHUNK) {
+			if (toGrid)
+				geodetic_to_grid(src, 0, dst, 0, count);
+			else
+				grid_to_geodetic(src, 0, dst, 0, count);
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int start = 0; start < count; start += PARALLEL_CHUNK) {
+			final int offset = 2 * start;
+			final int n = Math.min(PARALLEL_CHUNK, count - start);
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					if (toGrid)
+						geodetic_to_grid(src, offset, dst, offset, n);
+					else
+						grid_to_geodetic(src, offset, dst, offset, n);
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Conversion failed",
+						e.getCause());
+			}
+		}
+	}
+
+	// Conversion of one point to grid coordinates, rounded to mm unless
+	// full precision is set.
+	private void to_grid(double latitude, double longitude, double[] x_y,
+			int i) {
+		to_grid_exact(latitude, longitude, x_y, i);
+		if (full_precision)
+			return;
+		x_y[i] = Math.round(x_y[i] * 1000.0) / 1000.0;
+		x_y[i + 1] = Math.round(x_y[i + 1] * 1000.0) / 1000.0;
+	}
+
+	// Conversion of one point to grid coordinates, written to x_y[i],
+	// x_y[i + 1] without rounding. The sines and cosines of the multiples of
+	// xi and eta in the series are found from those of the first term.
+	void to_grid_exact(double latitude, double longitude, double[] x_y, int i) {
+		double phi = latitude * DEG_TO_RAD;
+		double sin_phi = Math.sin(phi);
+		double sin2 = sin_phi * sin_phi;
+		double phi_star = phi - sin_phi * Math.cos(phi)
+				* (A + sin2 * (B + sin2 * (C + sin2 * D)));
+		double delta_lambda = longitude * DEG_TO_RAD - lambda_zero;
 		double xi_prim = Math.atan(Math.tan(phi_star) / Math.cos(delta_lambda));
 		double eta_prim = math_atanh(Math.cos(phi_star)
 				* Math.sin(delta_lambda));
-		double x = scale
-				* a_roof
-				* (xi_prim + beta1 * Math.sin(2.0 * xi_prim)
-						* math_cosh(2.0 * eta_prim) + beta2
-						* Math.sin(4.0 * xi_prim) * math_cosh(4.0 * eta_prim)
-						+ beta3 * Math.sin(6.0 * xi_prim)
-						* math_cosh(6.0 * eta_prim) + beta4
-						* Math.sin(8.0 * xi_prim) * math_cosh(8.0 * eta_prim))
+
+		// sin(2k xi), cos(2k xi), cosh(2k eta) and sinh(2k eta), k = 1..4
+		double s1 = Math.sin(2.0 * xi_prim);
+		double c1 = Math.cos(2.0 * xi_prim);
+		double s2 = 2.0 * s1 * c1;
+		double c2 = c1 * c1 - s1 * s1;
+		double s3 = s2 * c1 + c2 * s1;
+		double c3 = c2 * c1 - s2 * s1;
+		double s4 = 2.0 * s2 * c2;
+		double c4 = c2 * c2 - s2 * s2;
+		double ex1 = Math.exp(2.0 * eta_prim);
+		double ex2 = ex1 * ex1;
+		double ex3 = ex2 * ex1;
+		double ex4 = ex2 * ex2;
+		double x = scale_a_roof
+				* (xi_prim + beta1 * s1 * 0.5 * (ex1 + 1.0 / ex1) + beta2
+						* s2 * 0.5 * (ex2 + 1.0 / ex2) + beta3 * s3 * 0.5
+						* (ex3 + 1.0 / ex3) + beta4 * s4 * 0.5
+						* (ex4 + 1.0 / ex4))
 				+ false_northing;
-		double y = scale
-				* a_roof
-				* (eta_prim + beta1 * Math.cos(2.0 * xi_prim)
-						* math_sinh(2.0 * eta_prim) + beta2
-						* Math.cos(4.0 * xi_prim) * math_sinh(4.0 * eta_prim)
-						+ beta3 * Math.cos(6.0 * xi_prim)
-						* math_sinh(6.0 * eta_prim) + beta4
-						* Math.cos(8.0 * xi_prim) * math_sinh(8.0 * eta_prim))
+		double y = scale_a_roof
+				* (eta_prim + beta1 * c1 * 0.5 * (ex1 - 1.0 / ex1) + beta2
+						* c2 * 0.5 * (ex2 - 1.0 / ex2) + beta3 * c3 * 0.5
+						* (ex3 - 1.0 / ex3) + beta4 * c4 * 0.5
+						* (ex4 - 1.0 / ex4))
 				+ false_easting;
-		x_y[0] = Math.round(x * 1000.0) / 1000.0;
-		x_y[1] = Math.round(y * 1000.0) / 1000.0;
-
-		return x_y;
+		x_y[i] = x;
+		x_y[i + 1] = y;
 	}
 
-	// Conversion from grid coordinates to geodetic coordinates.
-	public double[] grid_to_geodetic(double x, double y) {
-		double[] lat_lon = new double[2];
+	// Conversion of one point to geodetic coordinates, written to
+	// lat_lon[i], lat_lon[i + 1].
+	private void to_geodetic(double x, double y, double[] lat_lon, int i) {
 		if (central_meridian == Double.MIN_VALUE) {
-			return lat_lon;
+			lat_lon[i] = 0;
+			lat_lon[i + 1] = 0;
+			return;
 		}
-		// Prepare ellipsoid-based stuff.
-		double e2 = flattening * (2.0 - flattening);
-		double n = flattening / (2.0 - flattening);
-		double a_roof = axis / (1.0 + n)
-				* (1.0 + n * n / 4.0 + n * n * n * n / 64.0);
-		double delta1 = n / 2.0 - 2.0 * n * n / 3.0 + 37.0 * n * n * n / 96.0
-				- n * n * n * n / 360.0;
-		double delta2 = n * n / 48.0 + n * n * n / 15.0 - 437.0 * n * n * n * n
-				/ 1440.0;
-		double delta3 = 17.0 * n * n * n / 480.0 - 37 * n * n * n * n / 840.0;
-		double delta4 = 4397.0 * n * n * n * n / 161280.0;
-
-		double Astar = e2 + e2 * e2 + e2 * e2 * e2 + e2 * e2 * e2 * e2;
-		double Bstar = -(7.0 * e2 * e2 + 17.0 * e2 * e2 * e2 + 30.0 * e2 * e2
-				* e2 * e2) / 6.0;
-		double Cstar = (224.0 * e2 * e2 * e2 + 889.0 * e2 * e2 * e2 * e2) / 120.0;
-		double Dstar = -(4279.0 * e2 * e2 * e2 * e2) / 1260.0;
-
-		// Convert.
-		double deg_to_rad = Math.PI / 180;
-		double lambda_zero = central_meridian * deg_to_rad;
-		double xi = (x - false_northing) / (scale * a_roof);
-		double eta = (y - false_easting) / (scale * a_roof);
-		double xi_prim = xi - delta1 * Math.sin(2.0 * xi)
-				* math_cosh(2.0 * eta) - delta2 * Math.sin(4.0 * xi)
-				* math_cosh(4.0 * eta) - delta3 * Math.sin(6.0 * xi)
-				* math_cosh(6.0 * eta) - delta4 * Math.sin(8.0 * xi)
-				* math_cosh(8.0 * eta);
-		double eta_prim = eta - delta1 * Math.cos(2.0 * xi)
-				* math_sinh(2.0 * eta) - delta2 * Math.cos(4.0 * xi)
-				* math_sinh(4.0 * eta) - delta3 * Math.cos(6.0 * xi)
-				* math_sinh(6.0 * eta) - delta4 * Math.cos(8.0 * xi)
-				* math_sinh(8.0 * eta);
-		double phi_star = Math.asin(Math.sin(xi_prim) / math_cosh(eta_prim));
-		double delta_lambda = Math
-				.atan(math_sinh(eta_prim) / Math.cos(xi_prim));
-		double lon_radian = lambda_zero + delta_lambda;
-		double lat_radian = phi_star
-				+ Math.sin(phi_star)
-				* Math.cos(phi_star)
-				* (Astar + Bstar * Math.pow(Math.sin(phi_star), 2) + Cstar
-						* Math.pow(Math.sin(phi_star), 4) + Dstar
-						* Math.pow(Math.sin(phi_star), 6));
-		lat_lon[0] = lat_radian * 180.0 / Math.PI;
-		lat_lon[1] = lon_radian * 180.0 / Math.PI;
-		return lat_lon;
-	}
+		double xi = (x - false_northing) / scale_a_roof;
+		double eta = (y - false_easting) / scale_a_roof;
 
-	private double math_sinh(double value) {
-		return 0.5 * (Math.exp(value) - Math.exp(-value));
-	}
+		double s1 = Math.sin(2.0 * xi);
+		double c1 = Math.cos(2.0 * xi);
+		double s2 = 2.0 * s1 * c1;
+		double c2 = c1 * c1 - s1 * s1;
+		double s3 = s2 * c1 + c2 * s1;
+		double c3 = c2 * c1 - s2 * s1;
+		double s4 = 2.0 * s2 * c2;
+		double c4 = c2 * c2 - s2 * s2;
+		double ex1 = Math.exp(2.0 * eta);
+		double ex2 = ex1 * ex1;
+		double ex3 = ex2 * ex1;
+		double ex4 = ex2 * ex2;
+		double xi_prim = xi - delta1 * s1 * 0.5 * (ex1 + 1.0 / ex1) - delta2
+				* s2 * 0.5 * (ex2 + 1.0 / ex2) - delta3 * s3 * 0.5
+				* (ex3 + 1.0 / ex3) - delta4 * s4 * 0.5 * (ex4 + 1.0 / ex4);
+		double eta_prim = eta - delta1 * c1 * 0.5 * (ex1 - 1.0 / ex1) - delta2
+				* c2 * 0.5 * (ex2 - 1.0 / ex2) - delta3 * c3 * 0.5
+				* (ex3 - 1.0 / ex3) - delta4 * c4 * 0.5 * (ex4 - 1.0 / ex4);
 
-	private double math_cosh(double value) {
-		return 0.5 * (Math.exp(value) + Math.exp(-value));
+		double e = Math.exp(eta_prim);
+		double phi_star = Math.asin(Math.sin(xi_prim) / (0.5 * (e + 1.0 / e)));
+		double delta_lambda = Math.atan(0.5 * (e - 1.0 / e)
+				/ Math.cos(xi_prim));
+		double sin_phi = Math.sin(phi_star);
+		double sin2 = sin_phi * sin_phi;
+		double lat_radian = phi_star + sin_phi * Math.cos(phi_star)
+				* (Astar + sin2 * (Bstar + sin2 * (Cstar + sin2 * Dstar)));
+		lat_lon[i] = lat_radian * 180.0 / Math.PI;
+		lat_lon[i + 1] = (lambda_zero + delta_lambda) * 180.0 / Math.PI;
 	}
 
 	private double math_atanh(double value) {
@@ -0,0 +1,169 @@
+package org.sonardrone.proj;
+
+/**
+ * Fast approximation of a GaussKreuger projection around an anchor point,
+ * for projecting GPS fixes within a survey area. The grid coordinates are
+ * expanded to second order in latitude and longitude from the anchor, so
+ * that a fix is projected with a few multiplications instead of the
+ * trigonometric and hyperbolic functions of the Krüger series. Within a few
+ * km of the anchor the error is well below a mm.
+ *
+ * The first fix becomes the anchor. Every checkInterval fixes the
+ * approximation is compared with the exact projection, and a new anchor is
+ * taken when the error is above the tolerance or the fix is further than
+ * the radius from the anchor.
+ */
+public class LocalProjection {
+	// step for the derivatives at the anchor [deg]
+	private static final double H = 0.01;
+
+	private final GaussKreuger projection;
+	private final double radius;
+	private final double tolerance;
+	private final int checkInterval;
+
+	private boolean anchored = false;
+	private double lat0, lon0, x0, y0;
+	// derivatives of x and y with respect to latitude and longitude [deg]
+	private double x_lat, x_lon, x_latlat, x_latlon, x_lonlon;
+	private double y_lat, y_lon, y_latlat, y_latlon, y_lonlon;
+
+	private final double[] exact = new double[2];
+	private long fixes = 0;
+	private long checks = 0;
+	private long anchors = 0;
+	private double maxError = 0;
+
+	/**
+	 * @param projection
+	 *            projection to approximate
+	 * @param radius
+	 *            distance from the anchor [m] at which to re-anchor
+	 * @param tolerance
+	 *            largest accepted error [m]
+	 * @param checkInterval
+	 *            number of fixes between checks against the exact projection
+	 */
+	public LocalProjection(GaussKreuger projection, double radius,
+			double tolerance, int checkInterval) {
+		this.projection = projection;
+		this.radius = radius;
+		this.tolerance = tolerance;
+		this.checkInterval = Math.max(1, checkInterval);
+	}
+
+	/**
+	 * Conversion from geodetic coordinates to grid coordinates, rounded to
+	 * mm unless the projection has full precision.
+	 *
+	 * @param x_y
+	 *            array of at least two elements for x (north) and y (east)
+	 * @return x_y
+	 */
+	public double[] geodetic_to_grid(double latitude, double longitude,
+			double[] x_y) {
+		if (!this.anchored)
+			this.anchor(latitude, longitude);
+
+		double dlat = latitude - this.lat0;
+		double dlon = longitude - this.lon0;
+		double x = this.x0 + dlat * (this.x_lat + dlat * this.x_latlat)
+				+ dlon * (this.x_lon + dlat * this.x_latlon + dlon
+						* this.x_lonlon);
+		double y = this.y0 + dlat * (this.y_lat + dlat * this.y_latlat)
+				+ dlon * (this.y_lon + dlat * this.y_latlon + dlon
+						* this.y_lonlon);
+
+		double dx = x - this.x0;
+		double dy = y - this.y0;
+		if (dx * dx + dy * dy > this.radius * this.radius) {
+			this.anchor(latitude, longitude);
+			x = this.x0;
+			y = this.y0;
+		} else if (++this.fixes % this.checkInterval == 0) {
+			this.projection.to_grid_exact(latitude, longitude, this.exact, 0);
+			double error = Math.hypot(this.exact[0] - x, this.exact[1] - y);
+			this.checks++;
+			if (error > this.maxError)
+				this.maxError = error;
+			if (error > this.tolerance) {
+				this.anchor(latitude, longitude);
+				x = this.x0;
+				y = this.y0;
+			}
+		}
+		if (this.projection.isFullPrecision()) {
+			x_y[0] = x;
+			x_y[1] = y;
+		} else {
+			x_y[0] = Math.round(x * 1000.0) / 1000.0;
+			x_y[1] = Math.round(y * 1000.0) / 1000.0;
+		}
+		return x_y;
+	}
+
+	// Expands the projection around the point, using central differences
+	private void anchor(double latitude, double longitude) {
+		double[] p = this.exact;
+		GaussKreuger gk = this.projection;
+		gk.to_grid_exact(latitude, longitude, p, 0);
+		double x = p[0], y = p[1];
+		gk.to_grid_exact(latitude + H, longitude, p, 0);
+		double xn = p[0], yn = p[1];
+		gk.to_grid_exact(latitude - H, longitude, p, 0);
+		double xs = p[0], ys = p[1];
+		gk.to_grid_exact(latitude, longitude + H, p, 0);
+		double xe = p[0], ye = p[1];
+		gk.to_grid_exact(latitude, longitude - H, p, 0);
+		double xw = p[0], yw = p[1];
+		gk.to_grid_exact(latitude + H, longitude + H, p, 0);
+		double xne = p[0], yne = p[1];
+		gk.to_grid_exact(latitude + H, longitude - H, p, 0);
+		double xnw = p[0], ynw = p[1];
+		gk.to_grid_exact(latitude - H, longitude + H, p, 0);
+		double xse = p[0], yse = p[1];
+		gk.to_grid_exact(latitude - H, longitude - H, p, 0);
+		double xsw = p[0], ysw = p[1];
+
+		this.lat0 = latitude;
+		this.lon0 = longitude;
+		this.x0 = x;
+		this.y0 = y;
+		this.x_lat = (xn - xs) / (2 * H);
+		this.x_lon = (xe - xw) / (2 * H);
+		this.x_latlat = (xn - 2 * x + xs) / (2 * H * H);
+		this.x_lonlon = (xe - 2 * x + xw) / (2 * H * H);
+		this.x_latlon = (xne - xnw - xse + xsw) / (4 * H * H);
+		this.y_lat = (yn - ys) / (2 * H);
+		this.y_lon = (ye - yw) / (2 * H);
+		this.y_latlat = (yn - 2 * y + ys) / (2 * H * H);
+		this.y_lonlon = (ye - 2 * y + yw) / (2 * H * H);
+		this.y_latlon = (yne - ynw - yse + ysw) / (4 * H * H);
+		this.anchored = true;
+		this.anchors++;
+	}
+
+	// Next fix becomes the anchor
+	public void reset() {
+		this.anchored = false;
+	}
+
+	public double[] getAnchor() {
+		return new double[] { this.lat0, this.lon0 };
+	}
+
+	// Number of anchors taken, including the first
+	public long getAnchors() {
+		return this.anchors;
+	}
+
+	// Number of checks against the exact projection
+	public long getChecks() {
+		return this.checks;
+	}
+
+	// Largest error found by the checks [m]
+	public double getMaxError() {
+		return this.maxError;
+	}
+}
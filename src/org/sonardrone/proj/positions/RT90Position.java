@@ -28,6 +28,48 @@ public class RT90Position extends Position {
 		rt90_7_5_gon_v, rt90_5_0_gon_v, rt90_2_5_gon_v, rt90_0_0_gon_v, rt90_2_5_gon_o, rt90_5_0_gon_o
 	}
 
+	// Projections with precomputed constants, one per projection type
+	private static final GaussKreuger[] PROJECTIONS;
+	// Same, without rounding of grid coordinates to mm
+	private static final GaussKreuger[] FULL_PRECISION_PROJECTIONS;
+	static {
+		RT90Projection[] types = RT90Projection.values();
+		PROJECTIONS = new GaussKreuger[types.length];
+		FULL_PRECISION_PROJECTIONS = new GaussKreuger[types.length];
+		for (int i = 0; i < types.length; i++) {
+			String name = getProjectionString(types[i]);
+			PROJECTIONS[i] = new GaussKreuger(name, false);
+			FULL_PRECISION_PROJECTIONS[i] = new GaussKreuger(name, true);
+		}
+	}
+
+	/**
+	 * Shared projection for the projection type, for conversions without
+	 * creating positions
+	 * 
+	 * @param projection
+	 *            Projection type
+	 * @return
+	 */
+	public static GaussKreuger getGaussKreuger(RT90Projection projection) {
+		return PROJECTIONS[projection.ordinal()];
+	}
+
+	/**
+	 * Shared projection for the projection type
+	 * 
+	 * @param projection
+	 *            Projection type
+	 * @param fullPrecision
+	 *            grid coordinates are not rounded to mm
+	 * @return
+	 */
+	public static GaussKreuger getGaussKreuger(RT90Projection projection,
+			boolean fullPrecision) {
+		return fullPrecision ? FULL_PRECISION_PROJECTIONS[projection
+				.ordinal()] : PROJECTIONS[projection.ordinal()];
+	}
+
 	private RT90Projection projection;
 
 	/**
@@ -69,8 +111,7 @@ public class RT90Position extends Position {
 	public RT90Position(WGS84Position position, RT90Projection rt90projection) {
 		super(Grid.RT90);
 
-		GaussKreuger gkProjection = new GaussKreuger();
-		gkProjection.swedish_params(getProjectionString(rt90projection));
+		GaussKreuger gkProjection = getGaussKreuger(rt90projection);
 		double[] lat_lon = gkProjection.geodetic_to_grid(
 				position.getLatitude(), position.getLongitude());
 		this.latitude = lat_lon[0];
@@ -84,8 +125,7 @@ public class RT90Position extends Position {
 	 * @return
 	 */
 	public WGS84Position toWGS84() {
-		GaussKreuger gkProjection = new GaussKreuger();
-		gkProjection.swedish_params(getProjectionString());
+		GaussKreuger gkProjection = getGaussKreuger(this.projection);
 		double[] lat_lon = gkProjection.grid_to_geodetic(this.latitude,
 				this.longitude);
 
@@ -102,7 +142,7 @@ public class RT90Position extends Position {
 		return getProjectionString(this.projection);
 	}
 
-	private String getProjectionString(RT90Projection projection) {
+	private static String getProjectionString(RT90Projection projection) {
 		String retVal = "";
 		switch (projection) {
 		case rt90_7_5_gon_v:
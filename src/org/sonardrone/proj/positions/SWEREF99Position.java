@@ -28,6 +28,48 @@ public class SWEREF99Position extends Position {
 		sweref_99_tm, sweref_99_12_00, sweref_99_13_30, sweref_99_15_00, sweref_99_16_30, sweref_99_18_00, sweref_99_14_15, sweref_99_15_45, sweref_99_17_15, sweref_99_18_45, sweref_99_20_15, sweref_99_21_45, sweref_99_23_15
 	}
 
+	// Projections with precomputed constants, one per projection type
+	private static final GaussKreuger[] PROJECTIONS;
+	// Same, without rounding of grid coordinates to mm
+	private static final GaussKreuger[] FULL_PRECISION_PROJECTIONS;
+	static {
+		SWEREFProjection[] types = SWEREFProjection.values();
+		PROJECTIONS = new GaussKreuger[types.length];
+		FULL_PRECISION_PROJECTIONS = new GaussKreuger[types.length];
+		for (int i = 0; i < types.length; i++) {
+			String name = getProjectionString(types[i]);
+			PROJECTIONS[i] = new GaussKreuger(name, false);
+			FULL_PRECISION_PROJECTIONS[i] = new GaussKreuger(name, true);
+		}
+	}
+
+	/**
+	 * Shared projection for the projection type, for conversions without
+	 * creating positions
+	 * 
+	 * @param projection
+	 *            Projection type
+	 * @return
+	 */
+	public static GaussKreuger getGaussKreuger(SWEREFProjection projection) {
+		return PROJECTIONS[projection.ordinal()];
+	}
+
+	/**
+	 * Shared projection for the projection type
+	 * 
+	 * @param projection
+	 *            Projection type
+	 * @param fullPrecision
+	 *            grid coordinates are not rounded to mm
+	 * @return
+	 */
+	public static GaussKreuger getGaussKreuger(SWEREFProjection projection,
+			boolean fullPrecision) {
+		return fullPrecision ? FULL_PRECISION_PROJECTIONS[projection
+				.ordinal()] : PROJECTIONS[projection.ordinal()];
+	}
+
 	private SWEREFProjection projection;
 
 	/**
@@ -72,8 +114,7 @@ public class SWEREF99Position extends Position {
 	public SWEREF99Position(WGS84Position position, SWEREFProjection projection) {
 
 		super(Grid.SWEREF99);
-		GaussKreuger gkProjection = new GaussKreuger();
-		gkProjection.swedish_params(getProjectionString(projection));
+		GaussKreuger gkProjection = getGaussKreuger(projection);
 		double[] lat_lon = gkProjection.geodetic_to_grid(
 				position.getLatitude(), position.getLongitude());
 		this.latitude = lat_lon[0];
@@ -88,8 +129,7 @@ public class SWEREF99Position extends Position {
 	 * @return
 	 */
 	public WGS84Position toWGS84() {
-		GaussKreuger gkProjection = new GaussKreuger();
-		gkProjection.swedish_params(getProjectionString(this.projection));
+		GaussKreuger gkProjection = getGaussKreuger(this.projection);
 		double[] lat_lon = gkProjection.grid_to_geodetic(this.latitude,
 				this.longitude);
 
@@ -107,7 +147,7 @@ public class SWEREF99Position extends Position {
 		return getProjectionString(this.projection);
 	}
 
-	private String getProjectionString(SWEREFProjection projection) {
+	private static String getProjectionString(SWEREFProjection projection) {
 
 		String retVal = "";
 		switch (projection) {
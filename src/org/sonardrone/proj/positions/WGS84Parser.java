@@ -0,0 +1,277 @@
+package org.sonardrone.proj.positions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+
+import org.sonardrone.proj.positions.WGS84Position.WGS84Format;
+
+/**
+ * Parser for WGS84 positions in the string formats of WGS84Position, that
+ * scans the characters in place and converts degrees, minutes and seconds
+ * directly to double, without creating intermediate strings. Positions are
+ * written as latitude, longitude pairs to a caller supplied array.
+ *
+ * Degrees: "59.3 18.05", comma is accepted as decimal separator
+ * DegreesMinutes: "N 59º 18.123' E 18º 3.0'"
+ * DegreesMinutesSeconds: "N 59º 18' 7.38\" E 18º 3' 0.5\""
+ *
+ * As in WGS84Position the first character of a DM/DMS value is the
+ * direction, S, W or - gives a negative value, and values above 90 degrees
+ * are returned as Double.MIN_VALUE.
+ *
+ * A parser keeps the position of the current scan and is not thread safe.
+ */
+public class WGS84Parser {
+	// powers of ten that are exact as doubles
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+	// mantissas above this can not be converted exactly
+	private static final long MAX_EXACT = 1L << 53;
+
+	private final WGS84Format format;
+
+	// source of the current scan, one of them is set
+	private CharSequence seq;
+	private char[] chars;
+	private int pos;
+	private int end;
+
+	public WGS84Parser(WGS84Format format) {
+		this.format = format;
+	}
+
+	/**
+	 * Parses one position from s[start, end)
+	 *
+	 * @param lat_lon
+	 *            array of at least two elements for latitude and longitude
+	 * @return index after the position
+	 */
+	public int parse(CharSequence s, int start, int end, double[] lat_lon)
+			throws ParseException {
+		this.seq = s;
+		this.chars = null;
+		return this.parse(start, end, lat_lon);
+	}
+
+	/**
+	 * Parses one position from s[start, end)
+	 *
+	 * @param lat_lon
+	 *            array of at least two elements for latitude and longitude
+	 * @return index after the position
+	 */
+	public int parse(char[] s, int start, int end, double[] lat_lon)
+			throws ParseException {
+		this.chars = s;
+		this.seq = null;
+		return this.parse(start, end, lat_lon);
+	}
+
+	/**
+	 * Parses a whole file with one position per line. Empty lines and lines
+	 * starting with # are skipped.
+	 *
+	 * @return positions packed as latitude, longitude pairs
+	 */
+	public double[] parseAll(Reader reader) throws IOException,
+			ParseException {
+		char[] buf = new char[8192];
+		double[] lat_lon = new double[2];
+		double[] out = new double[256];
+		int n = 0;
+		int len = 0;
+		int line = 0;
+		boolean eof = false;
+		while (!eof || len > 0) {
+			// fill the buffer after the remains of the last read
+			if (!eof) {
+				int r = reader.read(buf, len, buf.length - len);
+				if (r < 0)
+					eof = true;
+				else
+					len += r;
+			}
+			int start = 0;
+			while (true) {
+				int nl = start;
+				while (nl < len && buf[nl] != '\n')
+					nl++;
+				if (nl == len && !eof)
+					break;
+				line++;
+				if (!this.isBlank(buf, start, nl)) {
+					try {
+						this.parse(buf, start, nl, lat_lon);
+					} catch (ParseException e) {
+						throw new ParseException(String.format(
+								"Line %d: %s", line, e.getMessage()), line);
+					}
+					if (n + 2 > out.length) {
+						double[] grown = new double[2 * out.length];
+						System.arraycopy(out, 0, grown, 0, n);
+						out = grown;
+					}
+					out[n++] = lat_lon[0];
+					out[n++] = lat_lon[1];
+				}
+				start = nl + 1;
+				if (start >= len)
+					break;
+			}
+			// keep the unfinished line, grow the buffer for very long lines
+			int rest = Math.max(0, len - start);
+			if (rest == buf.length) {
+				char[] grown = new char[2 * buf.length];
+				System.arraycopy(buf, 0, grown, 0, rest);
+				buf = grown;
+			} else if (rest > 0)
+				System.arraycopy(buf, start, buf, 0, rest);
+			len = rest;
+			if (eof)
+				break;
+		}
+		double[] result = new double[n];
+		System.arraycopy(out, 0, result, 0, n);
+		return result;
+	}
+
+	// true for an empty line, or a comment
+	private boolean isBlank(char[] buf, int start, int end) {
+		int i = start;
+		while (i < end && Character.isWhitespace(buf[i]))
+			i++;
+		return i == end || buf[i] == '#';
+	}
+
+	private int parse(int start, int end, double[] lat_lon)
+			throws ParseException {
+		this.pos = start;
+		this.end = end;
+		if (this.format == WGS84Format.Degrees) {
+			lat_lon[0] = this.number();
+			lat_lon[1] = this.number();
+		} else {
+			lat_lon[0] = this.angle('S');
+			lat_lon[1] = this.angle('W');
+		}
+		this.skipWhitespace();
+		if (this.pos != this.end)
+			throw new ParseException("Unexpected characters after position",
+					this.pos);
+		return this.pos;
+	}
+
+	// direction, degrees, minutes and, for DMS, seconds
+	private double angle(char negative) throws ParseException {
+		this.skipWhitespace();
+		if (this.pos >= this.end)
+			throw new ParseException("Missing direction", this.pos);
+		char direction = this.at(this.pos++);
+
+		double value = this.number();
+		this.expect('º', '°');
+		value += this.number() / 60;
+		this.expect('\'', '\'');
+		if (this.format == WGS84Format.DegreesMinutesSeconds) {
+			value += this.number() / 3600;
+			this.expect('"', '"');
+			if (value > 90)
+				return Double.MIN_VALUE;
+		} else if (value > 90)
+			value = Double.MIN_VALUE;
+
+		if (direction == negative || direction == '-')
+			value *= -1;
+		return value;
+	}
+
+	// decimal number, with point or comma as decimal separator
+	private double number() throws ParseException {
+		this.skipWhitespace();
+		int start = this.pos;
+		boolean negative = false;
+		if (this.pos < this.end) {
+			char c = this.at(this.pos);
+			if (c == '-' || c == '+') {
+				negative = c == '-';
+				this.pos++;
+			}
+		}
+		long mantissa = 0;
+		int decimals = 0;
+		int digits = 0;
+		boolean fraction = false;
+		boolean exponent = false;
+		boolean exact = true;
+		while (this.pos < this.end) {
+			char c = this.at(this.pos);
+			if (c >= '0' && c <= '9') {
+				if (mantissa < MAX_EXACT / 10) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (fraction)
+						decimals++;
+				} else
+					exact = false;
+				digits++;
+			} else if ((c == '.' || c == ',') && !fraction && !exponent)
+				fraction = true;
+			else if ((c == 'e' || c == 'E') && digits > 0 && !exponent) {
+				exponent = true;
+				exact = false;
+				// sign of the exponent
+				if (this.pos + 1 < this.end
+						&& (this.at(this.pos + 1) == '-' || this.at(this.pos + 1) == '+'))
+					this.pos++;
+			} else
+				break;
+			this.pos++;
+		}
+		if (digits == 0)
+			throw new ParseException("Expected a number", start);
+		if (!exact || decimals >= POW10.length)
+			return this.parseSlow(start, this.pos);
+		double value = mantissa / POW10[decimals];
+		return negative ? -value : value;
+	}
+
+	// numbers that can not be converted exactly from the digits
+	private double parseSlow(int start, int end) throws ParseException {
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = this.at(i);
+			sb.append(c == ',' ? '.' : c);
+		}
+		try {
+			return Double.parseDouble(sb.toString());
+		} catch (NumberFormatException e) {
+			throw new ParseException("Invalid number " + sb, start);
+		}
+	}
+
+	private void expect(char c, char alternative) throws ParseException {
+		this.skipWhitespace();
+		if (this.pos < this.end) {
+			char found = this.at(this.pos);
+			if (found == c || found == alternative) {
+				this.pos++;
+				return;
+			}
+		}
+		throw new ParseException("Expected " + c, this.pos);
+	}
+
+	private void skipWhitespace() {
+		while (this.pos < this.end && Character.isWhitespace(this.at(this.pos)))
+			this.pos++;
+	}
+
+	private char at(int i) {
+		return this.chars != null ? this.chars[i] : this.seq.charAt(i);
+	}
+}